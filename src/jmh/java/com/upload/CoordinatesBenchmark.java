@@ -0,0 +1,40 @@
+package com.upload;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maven repository path to groupId/artifactId/version/extension/classifier, done once per uploaded file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CoordinatesBenchmark {
+
+    private static final String[] PATHS = {
+            "com/example/lib/1.0/lib-1.0.jar",
+            "com/example/lib/1.0/lib-1.0.pom",
+            "com/example/lib/1.0/lib-1.0-sources.jar",
+            "org/apache/commons/commons-lang3/3.14.0/commons-lang3-3.14.0-javadoc.jar",
+            "com/company/platform/services/billing/billing-api/2024.11.3-SNAPSHOT/billing-api-2024.11.3-20241105.101530-7.jar",
+            "io/netty/netty-transport-native-epoll/4.1.100.Final/netty-transport-native-epoll-4.1.100.Final-linux-x86_64.jar",
+            "com/example/Artifact/2.0/Artifact-2.0.zip",
+            "net/java/dev/jna/jna/5.13.0/jna-5.13.0.jar",
+    };
+
+    private int next;
+
+    @Benchmark
+    public NexusUploaderMaven.Coordinates parse() {
+        return NexusUploaderMaven.Coordinates.parse(PATHS[next++ & (PATHS.length - 1)]);
+    }
+
+    @Benchmark
+    public String parseAssetKey() {
+        return NexusUploaderMaven.Coordinates.parse(PATHS[next++ & (PATHS.length - 1)]).assetKey();
+    }
+}
@@ -0,0 +1,63 @@
+package com.upload;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of one Nexus 2 directory listing page, from a folder with a handful of versions up to a huge flat folder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListingParseBenchmark {
+
+    private static final String BASE = "https://nexus.company.com:8443/content/repositories/releases/com/example/lib/";
+
+    @Param({"20", "1000", "50000"})
+    public int entries;
+
+    private String html;
+    private byte[] page;
+
+    @Setup(Level.Trial)
+    public void buildPage() {
+        html = listingPage(BASE, entries);
+        page = html.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Jsoup as the crawler used it: the page decoded into a String, then parsed into a DOM
+    @Benchmark
+    public List<ListingEntry> parse() {
+        return Nexus2Crawler.parseListing(BASE, new String(page, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public List<ListingEntry> stream() throws IOException {
+        return ListingReader.readHtml(BASE, new ByteArrayInputStream(page));
+    }
+
+    // Same markup as the Nexus 2 "Index of" pages: a parent link, then one row per entry with date and size cells
+    static String listingPage(String base, int entries) {
+        StringBuilder page = new StringBuilder(entries * 200)
+                .append("<html><head><title>Index of /</title></head><body><h1>Index of /</h1>")
+                .append("<table cellspacing=\"10\"><tr><th align=\"left\">Name</th><th>Last Modified</th><th>Size</th><th>Description</th></tr>")
+                .append("<tr><td><a href=\"../\">Parent Directory</a></td></tr>\n");
+        for (int i = 0; i < entries; i++) {
+            boolean folder = i % 4 == 0;
+            String name = folder ? "1." + i + "/" : "lib-1." + i + ".jar";
+            page.append("<tr>\n<td><a href=\"").append(base).append(name).append("\">").append(name).append("</a></td>\n")
+                    .append("<td>Tue Mar 05 14:22:").append(10 + i % 50).append(" UTC 2024</td>\n")
+                    .append("<td align=\"right\">").append(folder ? "&nbsp;" : String.valueOf(1000 + i * 37L)).append("</td>\n")
+                    .append("<td></td>\n</tr>\n");
+        }
+        return page.append("</table></body></html>").toString();
+    }
+}
@@ -0,0 +1,98 @@
+package com.upload;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the Maven and NuGet upload bodies for artifacts of several sizes and drains them the way the HttpClient
+ * would, so the cost of the multipart framing and of streaming the file are both measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultipartBodyBenchmark {
+
+    @Param({"1024", "1048576", "33554432"})
+    public int artifactSize;
+
+    private Path artifact;
+    private NexusUploaderMaven mavenUploader;
+
+    @Setup(Level.Trial)
+    public void createArtifact() throws IOException {
+        artifact = Files.createTempFile("benchmark-", ".jar");
+        try (RandomAccessFile file = new RandomAccessFile(artifact.toFile(), "rw")) {
+            file.setLength(artifactSize);
+        }
+        mavenUploader = new NexusUploaderMaven("http://localhost/service/rest/v1/components?repository=releases", "user", "pass");
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArtifact() throws IOException {
+        Files.delete(artifact);
+    }
+
+    @Benchmark
+    public long mavenBuild() throws IOException {
+        return mavenUploader.buildMultipartBody("lib-1.0-sources.jar", HttpRequest.BodyPublishers.ofFile(artifact),
+                "com.example.group", "lib", "1.0", "jar", "sources").build().contentLength();
+    }
+
+    @Benchmark
+    public long mavenBuildAndSend() throws Exception {
+        return drain(mavenUploader.buildMultipartBody("lib-1.0-sources.jar", HttpRequest.BodyPublishers.ofFile(artifact),
+                "com.example.group", "lib", "1.0", "jar", "sources").build());
+    }
+
+    @Benchmark
+    public long nugetBuildAndSend() throws Exception {
+        return drain(NexusUploaderNuget.buildMultipartBody("nuget.asset", "Package.1.0.0.nupkg",
+                HttpRequest.BodyPublishers.ofFile(artifact), "===boundary===").build());
+    }
+
+    // Pulls every buffer out of the publisher, like the HttpClient does while writing the request
+    static long drain(HttpRequest.BodyPublisher publisher) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        long[] bytes = new long[1];
+        Throwable[] error = new Throwable[1];
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer) {
+                bytes[0] += buffer.remaining();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                error[0] = throwable;
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        done.await();
+        if (error[0] != null) {
+            throw new IOException("body publisher failed", error[0]);
+        }
+        return bytes[0];
+    }
+}
@@ -0,0 +1,140 @@
+package com.upload;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Holding a whole crawl and turning it into filtered relative paths: building the PathTrie the crawler returns,
+ * the sequential mode's strip, filter and sorted walk over it, and the per-URL toRelativePath the pipeline uses instead.
+ *
+ * The retained* benchmarks report the heap a whole crawl keeps reachable, after a full GC, as the retainedBytes
+ * counter: the PathTrie against the absolute-URL HashSet, stripped HashSet and sorted TreeSet it replaced. They run a
+ * single measured iteration, since the counter adds up over iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PathSetBenchmark {
+
+    private static final String NEXUS2_BASE = "https://nexus.company.com:8443/content/repositories/";
+    private static final String[] EXTENSIONS = {".jar", ".pom", ".jar.sha1", ".pom.sha1", ".jar.md5", "-sources.jar", ".xml"};
+
+    @Param({"100000", "1000000"})
+    public int urlCount;
+
+    private Nexus2To3Sync sync;
+    private List<String> absoluteUrls;
+    private PathTrie crawled;
+
+    @Setup(Level.Trial)
+    public void buildUrls() {
+        sync = new Nexus2To3Sync(Nexus2To3Sync.MAVEN2_FILTER, NEXUS2_BASE, "releases/",
+                "https://nexus.company.com/repository/", "releases/",
+                "https://nexus.company.com/service/rest/v1/components?repository=",
+                Function.identity(), (file, relativePath) -> true);
+        Set<String> urls = new HashSet<>(urlCount * 2);
+        for (int i = 0; urls.size() < urlCount; i++) {
+            int artifact = i / 70;
+            int version = (i / EXTENSIONS.length) % 10;
+            urls.add(NEXUS2_BASE + "releases/com/company/team" + (artifact % 100) + "/artifact" + artifact
+                    + "/1." + version + "/artifact" + artifact + "-1." + version + EXTENSIONS[i % EXTENSIONS.length]);
+        }
+        absoluteUrls = new ArrayList<>(urls); // hash order, like a parallel crawl delivers them
+        crawled = buildTrie();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Retained {
+        public long retainedBytes;
+    }
+
+    @Benchmark
+    public PathTrie buildTrie() {
+        PathTrie trie = new PathTrie(NEXUS2_BASE + "releases/");
+        for (String url : absoluteUrls) {
+            trie.add(url);
+        }
+        trie.compact();
+        return trie;
+    }
+
+    @Benchmark
+    public int stripFilterSort() {
+        int kept = 0;
+        for (String relativePath : sync.sortedRelativePaths(crawled)) {
+            kept += relativePath.length() > 0 ? 1 : 0;
+        }
+        return kept;
+    }
+
+    @Benchmark
+    public int toRelativePathEach() {
+        int kept = 0;
+        for (String url : absoluteUrls) {
+            if (sync.toRelativePath(url) != null) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)
+    public Object retainedTrie(Retained retained) {
+        return measureRetained(retained, this::buildTrie);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 1)
+    public Object retainedUrlSets(Retained retained) {
+        return measureRetained(retained, () -> {
+            String repoPath = NEXUS2_BASE + "releases/";
+            Set<String> absolute = new HashSet<>();
+            for (String url : absoluteUrls) {
+                absolute.add(new String(url)); // the crawl's own copies, not the ones this benchmark holds
+            }
+            Set<String> stripped = new HashSet<>();
+            for (String url : absolute) {
+                stripped.add(url.substring(repoPath.length()));
+            }
+            Set<String> sorted = new TreeSet<>();
+            for (String relativePath : stripped) {
+                if (Nexus2To3Sync.MAVEN2_FILTER.test(relativePath)) {
+                    sorted.add(relativePath);
+                }
+            }
+            return List.of(absolute, stripped, sorted);
+        });
+    }
+
+    private static Object measureRetained(Retained retained, Supplier<Object> build) {
+        long before = usedHeapAfterGc();
+        Object held = build.get();
+        retained.retainedBytes = usedHeapAfterGc() - before;
+        return held;
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,97 @@
+package com.upload;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a full Nexus2To3Sync against a NexusStandInServer in this JVM and reports files/sec, bytes/sec and peak heap.
+ * Run one size per JVM (the sync keeps its counters in statics), e.g. 10k, 100k and 1M artifacts:
+ *
+ *   java -Xmx2g -cp ... com.upload.LoadTestHarness 100000
+ *
+ * The sync itself is configured with its usual -Dsync.* properties. The stand-in is shaped with:
+ *   loadtest.fileSize             bytes per artifact (default 4096)
+ *   loadtest.artifactsPerGroup    artifact folders per group folder (default 20)
+ *   loadtest.versions             version folders per artifact (default 5)
+ *   loadtest.nexus2LatencyMillis  added to every Nexus 2 response (default 0)
+ *   loadtest.nexus3LatencyMillis  added to every Nexus 3 response (default 0)
+ *   loadtest.nexus3ErrorRate      fraction of Nexus 3 requests answered with 503 (default 0)
+ *   loadtest.seedFraction         fraction of the files already in Nexus 3 before the run (default 0)
+ *   loadtest.trailingSlash        pass the repository names as "releases/" rather than "releases" (default true)
+ *   loadtest.quiet                drop the sync's per-file console output (default true), it dominates large runs
+ */
+public class LoadTestHarness {
+
+    public static void main(String[] args) throws Exception {
+        int artifacts = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        NexusStandInServer server = new NexusStandInServer(0, artifacts,
+                Integer.getInteger("loadtest.artifactsPerGroup", 20),
+                Integer.getInteger("loadtest.versions", 5),
+                Integer.getInteger("loadtest.fileSize", 4096));
+        server.setLatency(Long.getLong("loadtest.nexus2LatencyMillis", 0), Long.getLong("loadtest.nexus3LatencyMillis", 0));
+        server.setNexus3ErrorRate(Double.parseDouble(System.getProperty("loadtest.nexus3ErrorRate", "0")));
+        server.seedNexus3(Double.parseDouble(System.getProperty("loadtest.seedFraction", "0")));
+        server.start();
+
+        PrintStream console = System.out;
+        boolean quiet = Boolean.parseBoolean(System.getProperty("loadtest.quiet", "true"));
+        console.println("Syncing " + artifacts + " artifacts from the stand-in on port " + server.port());
+
+        // the heap is sampled rather than read from the pools' peaks, which are per pool and would overstate it
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong peakHeap = new AtomicLong();
+        SyncMetrics metrics = SyncMetrics.shared();
+        Thread sampler = new Thread(() -> {
+            long lastReport = System.nanoTime();
+            while (!Thread.currentThread().isInterrupted()) {
+                peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                if (System.nanoTime() - lastReport > 10_000_000_000L) {
+                    lastReport = System.nanoTime();
+                    console.println("  " + (metrics.successfulUploads.sum() + metrics.skips.sum()) + " files done, heap "
+                            + memory.getHeapMemoryUsage().getUsed() / (1024 * 1024) + " MiB");
+                }
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "loadtest-sampler");
+        sampler.setDaemon(true);
+
+        long start = System.nanoTime();
+        sampler.start();
+        if (quiet) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        try {
+            Nexus2To3Sync.main(server.syncArgs(Boolean.parseBoolean(System.getProperty("loadtest.trailingSlash", "true"))));
+        } finally {
+            System.setOut(console);
+            sampler.interrupt();
+            sampler.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        server.stop();
+
+        long files = metrics.successfulUploads.sum() + metrics.caseCollisions.sum() + metrics.skips.sum();
+        console.println();
+        console.println("=== Load test: " + artifacts + " artifacts ===");
+        console.printf("Elapsed:            %.1f s%n", seconds);
+        console.printf("Files/sec:          %.1f (%d uploaded, %d skipped, %d failed)%n", files / seconds,
+                metrics.successfulUploads.sum(), metrics.skips.sum(), metrics.failedUploads.sum());
+        console.printf("Bytes/sec:          %.1f KiB/s up, %.1f KiB/s down%n",
+                metrics.bytesUploaded.sum() / seconds / 1024, metrics.bytesDownloaded.sum() / seconds / 1024);
+        console.printf("Peak heap:          %d MiB (max %d MiB)%n", peakHeap.get() / (1024 * 1024), Runtime.getRuntime().maxMemory() / (1024 * 1024));
+        Long versionsSkipped = metrics.getGauges().get("crawl.versionsSkipped");
+        if (versionsSkipped != null) {
+            console.println("Versions not listed: " + versionsSkipped + " (already in Nexus 3, per maven-metadata.xml)");
+        }
+        console.println("Server requests:    " + server.requestCount() + " (" + server.injectedErrorCount() + " injected 503s)");
+        console.println("In Nexus 3 now:     " + server.nexus3AssetCount() + " of " + artifacts
+                + (server.nexus3AssetCount() == artifacts ? "" : "  <-- MISSING " + (artifacts - server.nexus3AssetCount())));
+    }
+}
@@ -0,0 +1,603 @@
+package com.upload;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for both sides of a migration, for load tests that must not touch real Nexus instances.
+ *
+ * Nexus 2 side (/nexus2/content/repositories/releases/): a synthetic Maven tree generated on the fly, so a million
+ * artifacts cost no disk or memory. Layout is com/loadtest/g{n}/a{n}/1.{n}/ with a jar, a pom and their .sha1 sidecars
+ * per version folder, and a maven-metadata.xml per artifact folder. Every file has the same content of fileSize bytes.
+ * Folders are also listed as JSON under /nexus2/service/local/repositories/releases/content/, like the content API.
+ *
+ * Nexus 3 side (/nexus3/): GET repository/releases/{path} (200 once uploaded, and .sha1 sidecars),
+ * POST service/rest/v1/components (maven2 and nuget multipart uploads, kept in memory as path -> size and SHA-1)
+ * and GET service/rest/v1/assets with continuation tokens.
+ *
+ * Latency can be added to either side, and a fraction of Nexus 3 requests can be answered with 503.
+ */
+public class NexusStandInServer {
+
+    static final String REPOSITORY = "releases";
+    private static final String NEXUS2_PREFIX = "/nexus2/content/repositories/" + REPOSITORY + "/";
+    private static final String NEXUS2_API_PREFIX = "/nexus2/service/local/repositories/" + REPOSITORY + "/content/";
+    private static final String API_DATE = "2024-03-05 14:22:10.0 UTC";
+    private static final String NEXUS3_REPOSITORY_PREFIX = "/nexus3/repository/" + REPOSITORY + "/";
+    private static final String LISTING_DATE = "Tue Mar 05 14:22:10 UTC 2024";
+    private static final int ASSETS_PAGE_SIZE = 100;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private record Asset(long size, String sha1) {
+    }
+
+    private final int artifacts; // uploadable files (jars and poms)
+    private final int artifactsPerGroup;
+    private final int versionsPerArtifact;
+    private final byte[] content;
+    private final String contentSha1;
+    private final HttpServer server;
+    private final NavigableMap<String, Asset> nexus3Assets = new ConcurrentSkipListMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicInteger injectedErrors = new AtomicInteger();
+
+    private volatile long nexus2LatencyMillis;
+    private volatile long nexus3LatencyMillis;
+    private volatile double nexus3ErrorRate;
+
+    public NexusStandInServer(int port, int artifacts, int artifactsPerGroup, int versionsPerArtifact, int fileSize) throws IOException {
+        this.artifacts = artifacts;
+        this.artifactsPerGroup = artifactsPerGroup;
+        this.versionsPerArtifact = versionsPerArtifact;
+        this.content = new byte[fileSize];
+        for (int i = 0; i < fileSize; i++) {
+            this.content[i] = (byte) (i * 31 + 7);
+        }
+        this.contentSha1 = sha1(this.content, 0, fileSize);
+
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            // without it small responses wait on delayed ACKs and the stand-in caps throughput at a few hundred requests/s
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 1024);
+        this.server.createContext("/nexus2/", this::handleNexus2);
+        this.server.createContext("/nexus3/", this::handleNexus3);
+        ExecutorService executor = Executors.newFixedThreadPool(256, runnable -> {
+            Thread thread = new Thread(runnable, "stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(executor);
+    }
+
+    public void setLatency(long nexus2Millis, long nexus3Millis) {
+        this.nexus2LatencyMillis = nexus2Millis;
+        this.nexus3LatencyMillis = nexus3Millis;
+    }
+
+    // Fraction (0..1) of Nexus 3 requests answered with 503 Service Unavailable
+    public void setNexus3ErrorRate(double errorRate) {
+        this.nexus3ErrorRate = errorRate;
+    }
+
+    // Marks the first fraction of the Nexus 2 files as already in Nexus 3, to load-test the skip path
+    public void seedNexus3(double fraction) {
+        int seeded = (int) (artifacts * fraction);
+        for (int file = 0; file < seeded; file++) {
+            nexus3Assets.put(filePath(file), new Asset(content.length, contentSha1));
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // The six Nexus2To3Sync arguments that point a maven2 sync at this server
+    public String[] syncArgs() {
+        return syncArgs(true);
+    }
+
+    // Repository names are passed both as "releases/" and as "releases", the README uses the latter
+    public String[] syncArgs(boolean trailingSlash) {
+        String base = "http://localhost:" + port();
+        String repository = trailingSlash ? REPOSITORY + "/" : REPOSITORY;
+        return new String[]{"maven2", base + "/nexus2/content/repositories/", repository,
+                base + "/nexus3/repository/", repository, base + "/nexus3/service/rest/v1/components?repository="};
+    }
+
+    public int nexus3AssetCount() {
+        return nexus3Assets.size();
+    }
+
+    public long requestCount() {
+        return requests.get();
+    }
+
+    public int injectedErrorCount() {
+        return injectedErrors.get();
+    }
+
+    public int artifactCount() {
+        return artifacts;
+    }
+
+    // Synthetic tree
+
+    private int versionFolders() {
+        return (artifacts + 1) / 2;
+    }
+
+    private int groups() {
+        int perGroup = artifactsPerGroup * versionsPerArtifact;
+        return (versionFolders() + perGroup - 1) / perGroup;
+    }
+
+    private int artifactsIn(int group) {
+        int first = group * artifactsPerGroup * versionsPerArtifact;
+        int left = versionFolders() - first;
+        return Math.max(0, Math.min(artifactsPerGroup, (left + versionsPerArtifact - 1) / versionsPerArtifact));
+    }
+
+    private int versionsIn(int group, int artifact) {
+        int first = (group * artifactsPerGroup + artifact) * versionsPerArtifact;
+        return Math.max(0, Math.min(versionsPerArtifact, versionFolders() - first));
+    }
+
+    // File n is the jar (even n) or pom (odd n) of version folder n / 2
+    private String filePath(int file) {
+        int folder = file / 2;
+        int version = folder % versionsPerArtifact;
+        int artifact = (folder / versionsPerArtifact) % artifactsPerGroup;
+        int group = folder / (versionsPerArtifact * artifactsPerGroup);
+        return "com/loadtest/g" + group + "/a" + artifact + "/1." + version + "/a" + artifact + "-1." + version
+                + (file % 2 == 0 ? ".jar" : ".pom");
+    }
+
+    // Entries of a folder, folders with a trailing slash; null when the folder does not exist
+    private List<String> list(String[] segments) {
+        List<String> names = new ArrayList<>();
+        try {
+            switch (segments.length) {
+                case 0 -> names.add("com/");
+                case 1 -> names.add("loadtest/");
+                case 2 -> {
+                    for (int g = 0; g < groups(); g++) {
+                        names.add("g" + g + "/");
+                    }
+                }
+                case 3 -> {
+                    int group = index(segments[2], "g", groups());
+                    for (int a = 0; a < artifactsIn(group); a++) {
+                        names.add("a" + a + "/");
+                    }
+                }
+                case 4 -> {
+                    int group = index(segments[2], "g", groups());
+                    int artifact = index(segments[3], "a", artifactsIn(group));
+                    for (int v = 0; v < versionsIn(group, artifact); v++) {
+                        names.add("1." + v + "/");
+                    }
+                    names.add("maven-metadata.xml");
+                }
+                case 5 -> {
+                    int group = index(segments[2], "g", groups());
+                    int artifact = index(segments[3], "a", artifactsIn(group));
+                    int version = index(segments[4], "1.", versionsIn(group, artifact));
+                    int folder = (group * artifactsPerGroup + artifact) * versionsPerArtifact + version;
+                    String base = "a" + artifact + "-1." + version;
+                    names.add(base + ".jar");
+                    names.add(base + ".jar.sha1");
+                    if (folder * 2 + 1 < artifacts) {
+                        names.add(base + ".pom");
+                        names.add(base + ".pom.sha1");
+                    }
+                }
+                default -> {
+                    return null;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return names;
+    }
+
+    private static int index(String segment, String prefix, int bound) {
+        if (!segment.startsWith(prefix)) {
+            throw new IllegalArgumentException(segment);
+        }
+        int n = Integer.parseInt(segment.substring(prefix.length()));
+        if (n < 0 || n >= bound) {
+            throw new IllegalArgumentException(segment);
+        }
+        return n;
+    }
+
+    // Nexus 2
+
+    private void handleNexus2(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            pause(nexus2LatencyMillis);
+            String path = exchange.getRequestURI().getPath();
+            if (path.startsWith(NEXUS2_API_PREFIX) && path.endsWith("/")) {
+                String relative = path.substring(NEXUS2_API_PREFIX.length());
+                List<String> names = list(relative.isEmpty() ? new String[0] : relative.split("/"));
+                if (names == null) {
+                    respond(exchange, 404, new byte[0], "text/plain");
+                } else {
+                    respond(exchange, 200, contentApiListing(path, names), "application/json");
+                }
+                return;
+            }
+            if (!path.endsWith("/") && (path + "/").startsWith(NEXUS2_PREFIX)) {
+                // folders asked for without the trailing slash are redirected to it, like Nexus 2 does
+                String folder = (path + "/").substring(NEXUS2_PREFIX.length());
+                if (list(folder.isEmpty() ? new String[0] : folder.split("/")) != null) {
+                    exchange.getResponseHeaders().set("Location", path + "/");
+                    respond(exchange, 301, new byte[0], "text/plain");
+                    return;
+                }
+            }
+            if (!path.startsWith(NEXUS2_PREFIX)) {
+                respond(exchange, 404, new byte[0], "text/plain");
+                return;
+            }
+            String relative = path.substring(NEXUS2_PREFIX.length());
+            String[] segments = relative.isEmpty() ? new String[0] : relative.split("/");
+
+            if (relative.isEmpty() || relative.endsWith("/")) {
+                List<String> names = list(segments);
+                if (names == null) {
+                    respond(exchange, 404, new byte[0], "text/plain");
+                } else {
+                    respond(exchange, 200, listingPage(path, names).getBytes(StandardCharsets.UTF_8), "text/html");
+                }
+                return;
+            }
+
+            String name = segments[segments.length - 1];
+            String[] folder = Arrays.copyOf(segments, segments.length - 1);
+            List<String> siblings = list(folder);
+            if (siblings == null || !siblings.contains(name)) {
+                respond(exchange, 404, new byte[0], "text/plain");
+            } else if (name.endsWith(".sha1")) {
+                respond(exchange, 200, contentSha1.getBytes(StandardCharsets.UTF_8), "text/plain");
+            } else if (name.equals("maven-metadata.xml")) {
+                respond(exchange, 200, metadata(folder, siblings).getBytes(StandardCharsets.UTF_8), "application/xml");
+            } else {
+                sendArtifact(exchange);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Every artifact has the same bytes; single "bytes=a-b" or "bytes=a-" ranges are honoured, like Nexus 2 does
+    private void sendArtifact(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/java-archive");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("ETag", "\"" + contentSha1 + "\"");
+        int from = 0;
+        int to = content.length - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        boolean partial = range != null && range.startsWith("bytes=") && !range.contains(",")
+                && (ifRange == null || ifRange.equals("\"" + contentSha1 + "\""));
+        if (partial) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            from = Integer.parseInt(bounds[0]);
+            to = bounds[1].isEmpty() ? content.length - 1 : Math.min(content.length - 1, Integer.parseInt(bounds[1]));
+            if (from > to) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                respond(exchange, 416, new byte[0], "text/plain");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + content.length);
+        }
+        int length = to - from + 1;
+        exchange.sendResponseHeaders(partial ? 206 : 200, length == 0 ? -1 : length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content, from, length);
+        }
+    }
+
+    // Artifact-level maven-metadata.xml listing the version folders next to it
+    private static String metadata(String[] folder, List<String> siblings) {
+        StringBuilder xml = new StringBuilder("<metadata>\n  <groupId>com.loadtest.").append(folder[2])
+                .append("</groupId>\n  <artifactId>").append(folder[3]).append("</artifactId>\n  <versioning>\n    <versions>\n");
+        for (String sibling : siblings) {
+            if (sibling.endsWith("/")) {
+                xml.append("      <version>").append(sibling, 0, sibling.length() - 1).append("</version>\n");
+            }
+        }
+        return xml.append("    </versions>\n  </versioning>\n</metadata>\n").toString();
+    }
+
+    // Same markup as the real Nexus 2 "Index of" pages, links are absolute
+    private String listingPage(String path, List<String> names) {
+        String base = "http://localhost:" + port() + path;
+        StringBuilder page = new StringBuilder(names.size() * 160 + 400)
+                .append("<html><head><title>Index of ").append(path).append("</title></head><body><h1>Index of ").append(path)
+                .append("</h1><table cellspacing=\"10\"><tr><th align=\"left\">Name</th><th>Last Modified</th><th>Size</th><th>Description</th></tr>\n")
+                .append("<tr><td><a href=\"../\">Parent Directory</a></td></tr>\n");
+        for (String name : names) {
+            boolean folder = name.endsWith("/");
+            page.append("<tr>\n<td><a href=\"").append(base).append(name).append("\">").append(name).append("</a></td>\n")
+                    .append("<td>").append(LISTING_DATE).append("</td>\n")
+                    .append("<td align=\"right\">").append(folder ? "&nbsp;" : name.endsWith(".sha1") ? "40" : String.valueOf(content.length))
+                    .append("</td>\n<td></td>\n</tr>\n");
+        }
+        return page.append("</table></body></html>").toString();
+    }
+
+    // Same fields as the Nexus 2 content API (service/local/repositories/{repo}/content/{path}/)
+    private byte[] contentApiListing(String path, List<String> names) throws IOException {
+        ObjectNode listing = MAPPER.createObjectNode();
+        ArrayNode data = listing.putArray("data");
+        String relative = path.substring(NEXUS2_API_PREFIX.length() - 1);
+        for (String name : names) {
+            boolean folder = name.endsWith("/");
+            data.addObject()
+                    .put("resourceURI", "http://localhost:" + port() + path + name)
+                    .put("relativePath", relative + name)
+                    .put("text", folder ? name.substring(0, name.length() - 1) : name)
+                    .put("leaf", !folder)
+                    .put("lastModified", API_DATE)
+                    .put("sizeOnDisk", folder ? -1 : name.endsWith(".sha1") ? 40 : content.length);
+        }
+        return MAPPER.writeValueAsBytes(listing);
+    }
+
+    // Nexus 3
+
+    private void handleNexus3(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            pause(nexus3LatencyMillis);
+            if (nexus3ErrorRate > 0 && ThreadLocalRandom.current().nextDouble() < nexus3ErrorRate) {
+                exchange.getRequestBody().readAllBytes();
+                injectedErrors.incrementAndGet();
+                respond(exchange, 503, "injected failure".getBytes(StandardCharsets.UTF_8), "text/plain");
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+            if (path.startsWith(NEXUS3_REPOSITORY_PREFIX) && method.equals("GET")) {
+                getAsset(exchange, path.substring(NEXUS3_REPOSITORY_PREFIX.length()));
+            } else if (path.equals("/nexus3/service/rest/v1/components") && method.equals("POST")) {
+                uploadComponent(exchange);
+            } else if (path.equals("/nexus3/service/rest/v1/assets") && method.equals("GET")) {
+                listAssets(exchange);
+            } else {
+                respond(exchange, 404, new byte[0], "text/plain");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void getAsset(HttpExchange exchange, String assetPath) throws IOException {
+        if (assetPath.endsWith(".sha1")) {
+            Asset asset = nexus3Assets.get(assetPath.substring(0, assetPath.length() - ".sha1".length()));
+            if (asset != null) {
+                respond(exchange, 200, asset.sha1().getBytes(StandardCharsets.UTF_8), "text/plain");
+                return;
+            }
+        }
+        // existence checks only look at the status, so no content is sent back
+        respond(exchange, nexus3Assets.containsKey(assetPath) ? 200 : 404, new byte[0], "application/octet-stream");
+    }
+
+    // Reads the whole multipart body; fine for a stand-in whose files are small
+    private void uploadComponent(HttpExchange exchange) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        int boundaryAt = contentType == null ? -1 : contentType.indexOf("boundary=");
+        if (boundaryAt < 0) {
+            respond(exchange, 400, "missing multipart boundary".getBytes(StandardCharsets.UTF_8), "text/plain");
+            return;
+        }
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        byte[] delimiter = ("\r\n--" + contentType.substring(boundaryAt + "boundary=".length())).getBytes(StandardCharsets.ISO_8859_1);
+
+        Map<String, String> fields = new HashMap<>();
+        Map<String, String> filenames = new HashMap<>();
+        Map<String, Asset> contents = new HashMap<>();
+        // a leading CRLF lets the first delimiter be found like all the others
+        byte[] data = new byte[body.length + 2];
+        data[0] = '\r';
+        data[1] = '\n';
+        System.arraycopy(body, 0, data, 2, body.length);
+        int partStart = indexOf(data, delimiter, 0);
+        while (partStart >= 0) {
+            int headersStart = partStart + delimiter.length + 2; // skip CRLF, or "--" on the closing delimiter
+            int headersEnd = indexOf(data, "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1), headersStart);
+            int next = indexOf(data, delimiter, headersStart);
+            if (headersEnd < 0 || next < 0) {
+                break;
+            }
+            String headers = new String(data, headersStart, headersEnd - headersStart, StandardCharsets.UTF_8);
+            String name = attribute(headers, "name");
+            String filename = attribute(headers, "filename");
+            int valueStart = headersEnd + 4;
+            if (filename != null) {
+                filenames.put(name, filename);
+                contents.put(name, new Asset(next - valueStart, sha1(data, valueStart, next - valueStart)));
+            } else if (name != null) {
+                fields.put(name, new String(data, valueStart, next - valueStart, StandardCharsets.UTF_8));
+            }
+            partStart = next;
+        }
+
+        List<String> stored = new ArrayList<>();
+        for (Map.Entry<String, String> file : filenames.entrySet()) {
+            String field = file.getKey();
+            String assetPath;
+            if (field.startsWith("maven2.asset")) {
+                String groupId = fields.get("maven2.groupId");
+                String artifactId = fields.get("maven2.artifactId");
+                String version = fields.get("maven2.version");
+                if (groupId == null || artifactId == null || version == null) {
+                    respond(exchange, 400, "missing maven2 coordinates".getBytes(StandardCharsets.UTF_8), "text/plain");
+                    return;
+                }
+                String classifier = fields.get(field + ".classifier");
+                String extension = fields.getOrDefault(field + ".extension", "jar");
+                assetPath = groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + artifactId + "-" + version
+                        + (classifier == null ? "" : "-" + classifier) + "." + extension;
+            } else {
+                assetPath = file.getValue();
+            }
+            stored.add(assetPath);
+            nexus3Assets.put(assetPath, contents.get(field));
+        }
+        if (stored.isEmpty()) {
+            respond(exchange, 400, "no asset in upload".getBytes(StandardCharsets.UTF_8), "text/plain");
+        } else {
+            respond(exchange, 204, new byte[0], "text/plain");
+        }
+    }
+
+    private void listAssets(HttpExchange exchange) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    query.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        String after = query.get("continuationToken");
+        NavigableMap<String, Asset> page = after == null ? nexus3Assets : nexus3Assets.tailMap(after, false);
+
+        ObjectNode root = MAPPER.createObjectNode();
+        ArrayNode items = root.putArray("items");
+        String last = null;
+        for (Map.Entry<String, Asset> asset : page.entrySet()) {
+            if (items.size() == ASSETS_PAGE_SIZE) {
+                break;
+            }
+            ObjectNode item = items.addObject();
+            item.put("path", "/" + asset.getKey());
+            item.put("repository", REPOSITORY);
+            item.put("fileSize", asset.getValue().size());
+            item.putObject("checksum").put("sha1", asset.getValue().sha1());
+            last = asset.getKey();
+        }
+        if (last != null && nexus3Assets.higherKey(last) != null) {
+            root.put("continuationToken", last);
+        } else {
+            root.putNull("continuationToken");
+        }
+        respond(exchange, 200, MAPPER.writeValueAsBytes(root), "application/json");
+    }
+
+    // Helpers
+
+    private static String attribute(String headers, String name) {
+        String marker = " " + name + "=\"";
+        int start = headers.indexOf(marker);
+        if (start < 0) {
+            marker = ";" + name + "=\"";
+            start = headers.indexOf(marker);
+        }
+        if (start < 0) {
+            return null;
+        }
+        start += marker.length();
+        return headers.substring(start, headers.indexOf('"', start));
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = Math.max(0, from); i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body, String contentType) throws IOException {
+        // the JDK server drops the connection instead of keeping it alive when the request was not read to the end
+        exchange.getRequestBody().readAllBytes();
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static void pause(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String sha1(byte[] data, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(data, offset, length);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // args (optional): port, artifacts, artifactsPerGroup, versionsPerArtifact, fileSize
+    public static void main(String[] args) throws Exception {
+        NexusStandInServer server = new NexusStandInServer(
+                args.length > 0 ? Integer.parseInt(args[0]) : 18080,
+                args.length > 1 ? Integer.parseInt(args[1]) : 10_000,
+                args.length > 2 ? Integer.parseInt(args[2]) : 20,
+                args.length > 3 ? Integer.parseInt(args[3]) : 5,
+                args.length > 4 ? Integer.parseInt(args[4]) : 4096);
+        server.start();
+        System.out.println("Stand-in Nexus 2 and Nexus 3 listening, sync with: " + String.join(" ", server.syncArgs()));
+        Thread.currentThread().join();
+    }
+}
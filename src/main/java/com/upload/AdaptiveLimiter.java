@@ -0,0 +1,89 @@
+package com.upload;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * AIMD concurrency limit for one server. The number of requests allowed in flight creeps up by one per
+ * "round" while responses stay fast, is cut in half on an overload response (429/502/503/504 or an I/O error),
+ * and is trimmed when latency drifts well above the best latency seen so far.
+ * Latency is only judged on small requests, a multi-GB upload is slow because of its size, not the server.
+ */
+public class AdaptiveLimiter {
+
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final double LATENCY_TOLERANCE = 2.0; // samples above 2x the baseline count as congestion
+    private static final double LATENCY_TRIM = 0.9;
+    private static final double EWMA_WEIGHT = 0.1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+
+    private double limit;
+    private int inFlight;
+    private double baselineNanos = Double.MAX_VALUE; // best smoothed latency seen
+    private double smoothedNanos = -1;
+    private long throttledCount;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, int maxAttempts, long baseBackoffMillis) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+    }
+
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    // latencyNanos < 0 means the sample says nothing about server health (e.g. a large upload)
+    public synchronized void release(long latencyNanos, boolean overloaded) {
+        inFlight--;
+        if (overloaded) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            throttledCount++;
+        } else if (latencyNanos >= 0) {
+            smoothedNanos = smoothedNanos < 0 ? latencyNanos : smoothedNanos + EWMA_WEIGHT * (latencyNanos - smoothedNanos);
+            baselineNanos = Math.min(baselineNanos, smoothedNanos);
+            if (smoothedNanos > baselineNanos * LATENCY_TOLERANCE) {
+                limit = Math.max(minLimit, limit * LATENCY_TRIM);
+            } else {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+        } else {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+        notifyAll();
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    // Full-jitter exponential backoff: a random wait up to base * 2^(attempt-1), capped at 30 seconds
+    public long backoffMillis(int attempt) {
+        long ceiling = Math.min(30_000, baseBackoffMillis << Math.min(attempt - 1, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public static boolean isOverloadStatus(int statusCode) {
+        return statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized long throttledCount() {
+        return throttledCount;
+    }
+}
@@ -0,0 +1,151 @@
+package com.upload;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Case-folded index over the Nexus 3 inventory and every path crawled so far. Nexus 3 cannot hold two paths that
+ * differ only in letter case, so the second spelling of a path is caught here, before it is downloaded, and left to
+ * the configured Policy instead of failing its upload.
+ *
+ * The spelling seen first wins: one already in Nexus 3, otherwise the one the crawl reached first.
+ *
+ * The index is seeded with the whole inventory, so it keeps no path Strings for the common case: each folded path is
+ * a 64-bit hash in an open-addressing table (about 16 bytes a path), and a first spelling is only kept when it is
+ * not already all lower case. Two different folded paths sharing a hash would be taken for a collision; at 64 bits
+ * that takes billions of paths to become likely.
+ */
+public class CaseCollisionIndex {
+
+    public enum Policy {
+        OFF,    // no index, every path is transferred
+        SKIP,   // count the collision and leave the path out, like an existing file
+        RENAME, // upload under a path whose colliding segment gets a -caseN suffix (maven2)
+        REPORT  // leave the path out and list it as unresolved
+    }
+
+    private static final long EMPTY = 0;
+
+    // guarded by this: hashes of the folded paths seen so far, EMPTY in free slots, never more than half full, and
+    // folded hash -> first spelling, only for spellings that are not their own folded form
+    private long[] folded = new long[1024];
+    private int size;
+    private final Map<Long, String> spellings = new HashMap<>();
+
+    // folded prefix ending at a colliding segment -> spellings of that prefix numbered so far; every file below one
+    // misspelled folder gets the same suffix, so its artifact stays together
+    private final Map<String, AtomicInteger> variants = new ConcurrentHashMap<>();
+    private final Map<String, Integer> suffixes = new ConcurrentHashMap<>();
+
+    // Seeds a path that is already in Nexus 3
+    public void add(String path) {
+        collision(path);
+    }
+
+    // The spelling that claimed path's folded form first, or null if that was path itself
+    public synchronized String collision(String path) {
+        String foldedPath = fold(path);
+        long hash = hash(foldedPath);
+        if (insert(hash)) {
+            if (!path.equals(foldedPath)) {
+                spellings.put(hash, path);
+            }
+            return null;
+        }
+        String existing = spellings.getOrDefault(hash, foldedPath);
+        return existing.equals(path) ? null : existing;
+    }
+
+    /**
+     * path with the first segment that differs from existing renamed to segment-caseN. When that segment is a folder,
+     * its name is renamed in the file name too (artifactId-version.ext), so Maven coordinates still line up.
+     */
+    public String rename(String path, String existing) {
+        String[] segments = path.split("/", -1);
+        String[] other = existing.split("/", -1);
+        int last = segments.length - 1;
+        int differing = 0;
+        while (differing < last && differing < other.length && segments[differing].equals(other[differing])) {
+            differing++;
+        }
+        String prefix = String.join("/", Arrays.copyOf(segments, differing + 1));
+        int number = suffixes.computeIfAbsent(prefix,
+                spelled -> variants.computeIfAbsent(fold(spelled), folded -> new AtomicInteger(1)).incrementAndGet());
+        String suffix = "-case" + number;
+
+        String original = segments[differing];
+        if (differing == last) {
+            int dot = original.lastIndexOf('.');
+            segments[last] = dot > 0 ? original.substring(0, dot) + suffix + original.substring(dot) : original + suffix;
+        } else {
+            segments[differing] = original + suffix;
+            String file = segments[last];
+            // artifactId at the start of the file name, version after a dash
+            int at = file.startsWith(original) ? 0 : file.indexOf("-" + original) + 1;
+            if (at > 0 || file.startsWith(original)) {
+                segments[last] = file.substring(0, at + original.length()) + suffix + file.substring(at + original.length());
+            }
+        }
+        String renamed = String.join("/", segments);
+        add(renamed);
+        return renamed;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // False when the hash was there already
+    private boolean insert(long hash) {
+        int mask = folded.length - 1;
+        int slot = (int) hash & mask;
+        while (folded[slot] != EMPTY) {
+            if (folded[slot] == hash) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        folded[slot] = hash;
+        if (++size * 2 > folded.length) {
+            grow();
+        }
+        return true;
+    }
+
+    private void grow() {
+        long[] old = folded;
+        folded = new long[old.length * 2];
+        int mask = folded.length - 1;
+        for (long hash : old) {
+            if (hash != EMPTY) {
+                int slot = (int) hash & mask;
+                while (folded[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                folded[slot] = hash;
+            }
+        }
+    }
+
+    // FNV-1a over the chars, then murmur3's finalizer so the low bits used for the slot are well mixed
+    private static long hash(String foldedPath) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < foldedPath.length(); i++) {
+            hash = (hash ^ foldedPath.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private static String fold(String path) {
+        return path.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,83 @@
+package com.upload;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Computes SHA-1 (and optionally SHA-256) of everything read through it, so an artifact is checksummed
+ * while it streams to disk or to Nexus 3 instead of in a second pass over the bytes.
+ */
+class ChecksumInputStream extends FilterInputStream {
+
+    private final MessageDigest sha1;
+    private final MessageDigest sha256; // null unless requested
+    private long bytesRead;
+
+    ChecksumInputStream(InputStream in, boolean withSha256) {
+        super(in);
+        this.sha1 = digest("SHA-1");
+        this.sha256 = withSha256 ? digest("SHA-256") : null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            update(new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = super.read(buffer, offset, length);
+        if (n > 0) {
+            update(buffer, offset, n);
+        }
+        return n;
+    }
+
+    // skipping would leave holes in the digest
+    @Override
+    public long skip(long n) throws IOException {
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    long bytesRead() {
+        return bytesRead;
+    }
+
+    // Only meaningful once the stream has been read to the end
+    String sha1Hex() {
+        return HexFormat.of().formatHex(sha1.digest());
+    }
+
+    String sha256Hex() {
+        return sha256 == null ? null : HexFormat.of().formatHex(sha256.digest());
+    }
+
+    private void update(byte[] buffer, int offset, int length) {
+        sha1.update(buffer, offset, length);
+        if (sha256 != null) {
+            sha256.update(buffer, offset, length);
+        }
+        bytesRead += length;
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is not available", e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.upload;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Last-modified date and size of every entry seen by the previous crawl, keyed by absolute URL.
+ * The crawler consults it to hand only new or modified files to the sync, and (optionally) to skip folders
+ * whose listing date has not moved. Stored as gzipped "url TAB lastModified TAB size" lines.
+ */
+public class CrawlSnapshot {
+
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
+    public static CrawlSnapshot load(Path file) throws IOException {
+        CrawlSnapshot snapshot = new CrawlSnapshot();
+        if (!Files.exists(file)) {
+            System.out.println("No crawl snapshot at " + file + ", doing a full sync");
+            return snapshot;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    snapshot.fingerprints.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        }
+        System.out.println("Loaded crawl snapshot of " + snapshot.fingerprints.size() + " entries from " + file);
+        return snapshot;
+    }
+
+    // Written to a temp file first so a crash while saving never leaves a truncated snapshot behind
+    public void save(Path file) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "snapshot-", ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(entry.getValue());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Saved crawl snapshot of " + fingerprints.size() + " entries to " + file);
+    }
+
+    // Records the entry and returns true if it is new or differs from the previous crawl
+    public boolean update(ListingEntry entry) {
+        if (entry.lastModified().isEmpty()) {
+            return true; // nothing to compare against, always treat as changed
+        }
+        String fingerprint = entry.lastModified() + '\t' + entry.size();
+        return !fingerprint.equals(fingerprints.put(entry.url(), fingerprint));
+    }
+
+    // Forget a url and every folder above it, so the next delta run looks at it again (e.g. after a failed upload)
+    public void invalidate(String url) {
+        fingerprints.remove(url);
+        int schemeEnd = url.indexOf("://") + 3;
+        for (int slash = url.lastIndexOf('/', url.length() - 2); slash >= schemeEnd; slash = url.lastIndexOf('/', slash - 1)) {
+            fingerprints.remove(url.substring(0, slash + 1));
+        }
+    }
+
+    public int size() {
+        return fingerprints.size();
+    }
+}
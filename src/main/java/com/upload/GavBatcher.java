@@ -0,0 +1,151 @@
+package com.upload;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Collects Maven files by their groupId/artifactId/version folder so each GAV can go up as one component.
+ * A batch is released once nothing has joined it for quietMillis, when it reaches maxAssets, when a file would
+ * repeat an extension/classifier pair already in it, or when the batcher is closed.
+ *
+ * Every waiting file is a temp file on disk, so at most maxOpenFiles wait at a time: past that, add() releases the
+ * batch that has waited longest itself, and blocks while the sink takes it.
+ */
+class GavBatcher<T> {
+
+    interface Sink<T> {
+        void accept(List<T> batch) throws InterruptedException;
+    }
+
+    private static class Batch<T> {
+        final List<T> items = new ArrayList<>();
+        final Set<String> assetKeys = new HashSet<>();
+        long lastAdded;
+    }
+
+    private final Function<T, String> pathOf;
+    private final Sink<T> sink;
+    private final long quietMillis;
+    private final int maxAssets;
+    private final int maxOpenFiles;
+    private final Map<String, Batch<T>> open = new HashMap<>();
+    private int openFiles; // items in the open batches; guarded by this
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    GavBatcher(Function<T, String> pathOf, Sink<T> sink, long quietMillis, int maxAssets, int maxOpenFiles) {
+        this.pathOf = pathOf;
+        this.sink = sink;
+        this.quietMillis = quietMillis;
+        this.maxAssets = maxAssets;
+        this.maxOpenFiles = Math.max(maxAssets, maxOpenFiles);
+        this.flusher = new Thread(this::flushQuietBatches, "sync-gav-batcher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    void add(T item) throws InterruptedException {
+        String path = pathOf.apply(item);
+        String assetKey;
+        try {
+            assetKey = NexusUploaderMaven.Coordinates.parse(path).assetKey();
+        } catch (IllegalArgumentException e) {
+            sink.accept(List.of(item)); // not a GAV path, let the single upload report it
+            return;
+        }
+        String gavFolder = path.substring(0, path.lastIndexOf('/') + 1);
+
+        List<List<T>> ready = new ArrayList<>();
+        synchronized (this) {
+            Batch<T> batch = open.get(gavFolder);
+            if (batch != null && batch.assetKeys.contains(assetKey)) {
+                ready.add(release(gavFolder));
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch<>();
+                open.put(gavFolder, batch);
+            }
+            batch.items.add(item);
+            batch.assetKeys.add(assetKey);
+            batch.lastAdded = System.currentTimeMillis();
+            openFiles++;
+            if (batch.items.size() >= maxAssets) {
+                ready.add(release(gavFolder));
+            }
+            while (openFiles > maxOpenFiles) {
+                ready.add(release(longestWaiting()));
+            }
+        }
+        // hand off outside the lock, the sink may block on a full upload queue
+        for (List<T> batch : ready) {
+            sink.accept(batch);
+        }
+    }
+
+    // Stop the timer and release everything still waiting
+    void close() throws InterruptedException {
+        // no interrupt: the flusher may be blocked handing a batch to the sink and must not drop it
+        closed = true;
+        flusher.join();
+        List<List<T>> ready;
+        synchronized (this) {
+            ready = new ArrayList<>();
+            open.values().forEach(batch -> ready.add(batch.items));
+            open.clear();
+            openFiles = 0;
+        }
+        for (List<T> batch : ready) {
+            sink.accept(batch);
+        }
+    }
+
+    private synchronized List<T> release(String gavFolder) {
+        Batch<T> batch = open.remove(gavFolder);
+        openFiles -= batch.items.size();
+        return batch.items;
+    }
+
+    private synchronized String longestWaiting() {
+        String oldest = null;
+        long oldestAdded = Long.MAX_VALUE;
+        for (Map.Entry<String, Batch<T>> entry : open.entrySet()) {
+            if (entry.getValue().lastAdded < oldestAdded) {
+                oldest = entry.getKey();
+                oldestAdded = entry.getValue().lastAdded;
+            }
+        }
+        return oldest;
+    }
+
+    private void flushQuietBatches() {
+        try {
+            while (!closed) {
+                Thread.sleep(Math.max(1, quietMillis / 2));
+                List<List<T>> ready = new ArrayList<>();
+                long cutoff = System.currentTimeMillis() - quietMillis;
+                synchronized (this) {
+                    for (Iterator<Batch<T>> it = open.values().iterator(); it.hasNext(); ) {
+                        Batch<T> batch = it.next();
+                        if (batch.lastAdded <= cutoff) {
+                            ready.add(batch.items);
+                            openFiles -= batch.items.size();
+                            it.remove();
+                        }
+                    }
+                }
+                for (List<T> batch : ready) {
+                    sink.accept(batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
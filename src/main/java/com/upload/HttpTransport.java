@@ -0,0 +1,159 @@
+package com.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The one HttpClient every component talks through, so TLS sessions and keep-alive connections are reused
+ * across crawling, existence checks, downloads and uploads instead of being rebuilt per request.
+ *
+ * Tunable with system properties:
+ *   sync.http.perHost      max requests in flight per host (default 64)
+ *   sync.http.poolSize     max idle connections kept in the JDK pool, 0 = unlimited (default 0)
+ *   sync.http.version      HTTP_2 (default, falls back to HTTP/1.1 when the server does not offer it) or HTTP_1_1
+ */
+public class HttpTransport {
+
+    private static final HttpTransport SHARED = new HttpTransport(
+            Integer.getInteger("sync.http.perHost", 64),
+            Integer.getInteger("sync.http.poolSize", 0),
+            HttpClient.Version.valueOf(System.getProperty("sync.http.version", "HTTP_2")));
+
+    private static final Map<String, String> AUTH_HEADERS = new ConcurrentHashMap<>();
+
+    private final HttpClient client;
+    private final int perHostLimit;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
+    // requests with bodies larger than this are too slow by nature to say anything about server latency
+    private static final long LATENCY_SAMPLE_MAX_BYTES = 1 << 20;
+
+    public HttpTransport(int perHostLimit, int poolSize, HttpClient.Version version) {
+        if (poolSize > 0 && System.getProperty("jdk.httpclient.connectionPoolSize") == null) {
+            // read once by the JDK when its connection pool is first created
+            System.setProperty("jdk.httpclient.connectionPoolSize", String.valueOf(poolSize));
+        }
+        this.perHostLimit = perHostLimit;
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+                .version(version)
+                .followRedirects(HttpClient.Redirect.ALWAYS)
+                .connectTimeout(Duration.ofSeconds(30))
+                .executor(executor)
+                .build();
+    }
+
+    public static HttpTransport shared() {
+        return SHARED;
+    }
+
+    public HttpClient client() {
+        return client;
+    }
+
+    // From now on requests to this server go through the limiter, and transient failures are retried with backoff
+    public void limitServer(URI uri, AdaptiveLimiter limiter) {
+        limiters.put(serverKey(uri), limiter);
+    }
+
+    public AdaptiveLimiter limiter(URI uri) {
+        return limiters.get(serverKey(uri));
+    }
+
+    // host:port with the scheme's default port filled in, so two Nexus instances on one host are limited apart
+    public static String serverKey(URI uri) {
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getHost() + ":" + port;
+    }
+
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+        return send(request, handler, true);
+    }
+
+    /**
+     * Sends through the host's adaptive limiter when it has one. Overload responses (429/502/503/504) and I/O errors
+     * are retried with jittered exponential backoff, unless retryable is false because the body cannot be sent twice.
+     */
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler, boolean retryable) throws IOException, InterruptedException {
+        AdaptiveLimiter limiter = limiters.get(serverKey(request.uri()));
+        if (limiter == null) {
+            return sendWithPermit(request, handler);
+        }
+
+        long bodyLength = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+        boolean sampleLatency = bodyLength >= 0 && bodyLength <= LATENCY_SAMPLE_MAX_BYTES;
+        for (int attempt = 1; ; attempt++) {
+            limiter.acquire();
+            long start = System.nanoTime();
+            HttpResponse<T> response;
+            try {
+                response = sendWithPermit(request, handler);
+            } catch (IOException e) {
+                limiter.release(-1, true);
+                if (!retryable || attempt >= limiter.maxAttempts()) {
+                    throw e;
+                }
+                backoff(limiter, attempt, request, e.toString());
+                continue;
+            } catch (InterruptedException | RuntimeException e) {
+                limiter.release(-1, false);
+                throw e;
+            }
+
+            boolean overloaded = AdaptiveLimiter.isOverloadStatus(response.statusCode());
+            limiter.release(sampleLatency ? System.nanoTime() - start : -1, overloaded);
+            if (!overloaded || !retryable || attempt >= limiter.maxAttempts()) {
+                return response;
+            }
+            if (response.body() instanceof InputStream) {
+                ((InputStream) response.body()).close(); // give the connection back before waiting
+            }
+            backoff(limiter, attempt, request, "HTTP " + response.statusCode());
+        }
+    }
+
+    private static void backoff(AdaptiveLimiter limiter, int attempt, HttpRequest request, String reason) throws InterruptedException {
+        long millis = limiter.backoffMillis(attempt);
+        System.out.println("Retrying " + request.method() + " " + request.uri() + " in " + millis + " ms after " + reason);
+        Thread.sleep(millis);
+    }
+
+    // Blocks while the target server already has perHostLimit requests waiting for response headers
+    private <T> HttpResponse<T> sendWithPermit(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+        Semaphore permits = hostPermits.computeIfAbsent(serverKey(request.uri()), server -> new Semaphore(perHostLimit));
+        permits.acquire();
+        try {
+            return client.send(request, handler);
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Basic auth header value, encoded once per set of credentials
+    public static String basicAuth(String user, String pass) {
+        return AUTH_HEADERS.computeIfAbsent(user + ":" + pass,
+                cred -> "Basic " + Base64.getEncoder().encodeToString(cred.getBytes(StandardCharsets.UTF_8)));
+    }
+}
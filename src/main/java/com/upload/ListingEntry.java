@@ -0,0 +1,24 @@
+package com.upload;
+
+/**
+ * One row of a Nexus 2 directory listing. Folders keep their trailing slash in the url.
+ * lastModified is the listing's date text as-is ("" when missing), size is -1 for folders or when not shown.
+ */
+public record ListingEntry(String url, String lastModified, long size) {
+
+    public boolean isDirectory() {
+        return url.endsWith("/");
+    }
+
+    static long parseSize(String text) {
+        String trimmed = text.replace('\u00a0', ' ').trim(); // &nbsp; for folders
+        if (trimmed.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(trimmed);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.upload;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads Nexus 2 directory listings straight off the response stream, without holding the page as a String or
+ * building a DOM. Only the anchors of each table row and the row's "Last Modified" and "Size" cells are kept.
+ *
+ * Memory per listing is the entries plus a few fixed buffers: a tag longer than MAX_TAG bytes is skipped and cell
+ * text beyond MAX_CELL bytes is dropped, so a hostile or broken page cannot make a buffer grow without bound.
+ */
+final class ListingReader {
+
+    private static final int READ_BUFFER = 8192;
+    private static final int MAX_TAG = 8192;
+    private static final int MAX_CELL = 256;
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final String path;
+    private final List<ListingEntry> entries = new ArrayList<>();
+
+    // bytes of the tag or cell being read; only hrefs and the date and size cells ever become Strings
+    private final byte[] tag = new byte[MAX_TAG];
+    private int tagLength;
+    private boolean tagTooLong;
+    private final byte[] cell = new byte[MAX_CELL];
+    private int cellLength;
+
+    // the current table row: its links wait for the date and size cells that follow them
+    private final List<String> rowLinks = new ArrayList<>();
+    private boolean inRow;
+    private int cellIndex = -1;
+    private boolean inCell;
+    private String lastModified = "";
+    private long size = -1;
+
+    private ListingReader(String path) {
+        this.path = path;
+    }
+
+    // Entries of the "Index of" page read from in, with absolute URLs; folders keep their trailing slash
+    static List<ListingEntry> readHtml(String path, InputStream in) throws IOException {
+        ListingReader reader = new ListingReader(path);
+        reader.scan(in);
+        return reader.entries;
+    }
+
+    /**
+     * Entries of a Nexus 2 content API response (GET service/local/repositories/{repo}/content/{path}/ with
+     * Accept: application/json), read token by token. Dates come in the API's own format, not the page's.
+     */
+    static List<ListingEntry> readContentApi(String path, InputStream in) throws IOException {
+        List<ListingEntry> entries = new ArrayList<>();
+        try (JsonParser parser = JSON.createParser(in)) {
+            // {"data": [{"text": "name", "leaf": true, "lastModified": "...", "sizeOnDisk": 123, ...}, ...]}
+            while (parser.nextToken() != null) {
+                if (parser.currentToken() == JsonToken.FIELD_NAME && parser.getCurrentName().equals("data")
+                        && parser.nextToken() == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        entries.add(readContentItem(path, parser));
+                    }
+                    break;
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static ListingEntry readContentItem(String path, JsonParser parser) throws IOException {
+        String text = "";
+        boolean leaf = true;
+        String lastModified = "";
+        long size = -1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "text" -> text = parser.getValueAsString("");
+                case "leaf" -> leaf = parser.getValueAsBoolean(true);
+                case "lastModified" -> lastModified = parser.getValueAsString("");
+                case "sizeOnDisk" -> size = parser.getValueAsLong(-1);
+                default -> parser.skipChildren();
+            }
+        }
+        // text is the plain name, while the page's hrefs (and so every URL the crawl hands on) are percent-encoded
+        String name = encodeSegment(text);
+        return leaf ? new ListingEntry(path + name, lastModified, size) : new ListingEntry(path + name + "/", lastModified, -1);
+    }
+
+    // Percent-encodes the UTF-8 bytes of everything RFC 3986 does not allow in a path segment; most names pass as they are
+    static String encodeSegment(String name) {
+        int i = 0;
+        while (i < name.length() && isSegmentChar(name.charAt(i))) {
+            i++;
+        }
+        if (i == name.length()) {
+            return name;
+        }
+        StringBuilder encoded = new StringBuilder(name.length() + 16).append(name, 0, i);
+        for (byte b : name.substring(i).getBytes(StandardCharsets.UTF_8)) {
+            if (b >= 0 && isSegmentChar((char) b)) {
+                encoded.append((char) b);
+            } else {
+                encoded.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            }
+        }
+        return encoded.toString();
+    }
+
+    // unreserved, sub-delims, ':' and '@'
+    private static boolean isSegmentChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || "-._~!$&'()*+,;=:@".indexOf(c) >= 0;
+    }
+
+    // Content API URL of a folder below .../content/repositories/{repo}/, or null when path is not laid out like that
+    static String contentApiUrl(String path) {
+        int content = path.indexOf("/content/repositories/");
+        if (content < 0) {
+            return null;
+        }
+        int repoStart = content + "/content/repositories/".length();
+        int repoEnd = path.indexOf('/', repoStart);
+        if (repoEnd < 0) {
+            return null;
+        }
+        return path.substring(0, content) + "/service/local/repositories/" + path.substring(repoStart, repoEnd)
+                + "/content" + path.substring(repoEnd);
+    }
+
+    private void scan(InputStream in) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER];
+        boolean inTag = false;
+        byte quote = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                byte b = buffer[i];
+                if (!inTag) {
+                    if (b == '<') {
+                        inTag = true;
+                        tagLength = 0;
+                        tagTooLong = false;
+                    } else if (inCell && cellLength < MAX_CELL) {
+                        cell[cellLength++] = b;
+                    }
+                } else if (quote != 0) {
+                    if (b == quote) {
+                        quote = 0;
+                    }
+                    appendTag(b);
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                    appendTag(b);
+                } else if (b == '>') {
+                    inTag = false;
+                    if (!tagTooLong) {
+                        handleTag();
+                    }
+                } else {
+                    appendTag(b);
+                }
+            }
+        }
+        endRow();
+    }
+
+    private void appendTag(byte b) {
+        if (tagLength < MAX_TAG) {
+            tag[tagLength++] = b;
+        } else {
+            tagTooLong = true;
+        }
+    }
+
+    private void handleTag() {
+        if (isTag("tr")) {
+            endRow();
+            inRow = true;
+        } else if (isTag("/tr") || isTag("/table")) {
+            endRow();
+        } else if (isTag("td")) {
+            endCell();
+            cellIndex++;
+            inCell = true;
+            cellLength = 0;
+        } else if (isTag("/td")) {
+            endCell();
+        } else if (isTag("a")) {
+            String href = href();
+            if (href != null && !href.equals("../") && !href.startsWith("?")) {
+                if (inRow) {
+                    rowLinks.add(href);
+                } else {
+                    entries.add(new ListingEntry(absolutify(path, href), "", -1));
+                }
+            }
+        }
+    }
+
+    // Whether the tag just read is <name ...>, ignoring case
+    private boolean isTag(String name) {
+        int length = name.length();
+        if (tagLength < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (lower(tag[i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return tagLength == length || isSpace(tag[length]) || tag[length] == '/';
+    }
+
+    // Value of the href attribute of the tag just read, quoted or bare, entities decoded; null when it has none
+    private String href() {
+        for (int i = 1; i + 4 < tagLength; i++) {
+            if (!isSpace(tag[i - 1]) || lower(tag[i]) != 'h' || lower(tag[i + 1]) != 'r' || lower(tag[i + 2]) != 'e' || lower(tag[i + 3]) != 'f') {
+                continue;
+            }
+            int at = i + 4;
+            while (at < tagLength && isSpace(tag[at])) at++;
+            if (at >= tagLength || tag[at] != '=') {
+                continue;
+            }
+            at++;
+            while (at < tagLength && isSpace(tag[at])) at++;
+            int end;
+            if (at < tagLength && (tag[at] == '"' || tag[at] == '\'')) {
+                byte quote = tag[at++];
+                end = at;
+                while (end < tagLength && tag[end] != quote) end++;
+            } else {
+                end = at;
+                while (end < tagLength && !isSpace(tag[end])) end++;
+            }
+            return decodeEntities(new String(tag, at, end - at, StandardCharsets.UTF_8));
+        }
+        return null;
+    }
+
+    private void endCell() {
+        if (!inCell) {
+            return;
+        }
+        inCell = false;
+        if (cellIndex == 1) {
+            lastModified = collapseWhitespace(new String(cell, 0, cellLength, StandardCharsets.UTF_8));
+        } else if (cellIndex == 2) {
+            size = parseSize();
+        }
+    }
+
+    // Digits of the size cell without going through a String; anything else goes the slow way
+    private long parseSize() {
+        long value = 0;
+        int digits = 0;
+        int i = 0;
+        while (i < cellLength && isSpace(cell[i])) i++;
+        while (i < cellLength && cell[i] >= '0' && cell[i] <= '9' && digits < 18) {
+            value = value * 10 + (cell[i++] - '0');
+            digits++;
+        }
+        while (i < cellLength && isSpace(cell[i])) i++;
+        if (i == cellLength && digits > 0) {
+            return value;
+        }
+        return ListingEntry.parseSize(decodeEntities(new String(cell, 0, cellLength, StandardCharsets.UTF_8)));
+    }
+
+    private void endRow() {
+        endCell();
+        for (String href : rowLinks) {
+            entries.add(new ListingEntry(absolutify(path, href), lastModified, size));
+        }
+        rowLinks.clear();
+        inRow = false;
+        cellIndex = -1;
+        lastModified = "";
+        size = -1;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+    }
+
+    private static int lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    // The entities a listing can contain in a link or cell; anything else is left as written
+    private static String decodeEntities(String text) {
+        if (text.indexOf('&') < 0) {
+            return text;
+        }
+        return text.replace("&nbsp;", " ").replace("&lt;", "<").replace("&gt;", ">")
+                .replace("&quot;", "\"").replace("&#39;", "'").replace("&amp;", "&");
+    }
+
+    // Jsoup's text(): entities decoded, runs of whitespace as one space, trimmed
+    private static String collapseWhitespace(String text) {
+        String decoded = decodeEntities(text).trim();
+        StringBuilder collapsed = null;
+        for (int i = 0; i < decoded.length(); i++) {
+            char c = decoded.charAt(i);
+            boolean space = Character.isWhitespace(c);
+            if (collapsed == null) {
+                if (space && (c != ' ' || i + 1 < decoded.length() && Character.isWhitespace(decoded.charAt(i + 1)))) {
+                    collapsed = new StringBuilder(decoded.length()).append(decoded, 0, i);
+                } else {
+                    continue;
+                }
+            }
+            if (!space) {
+                collapsed.append(c);
+            } else if (collapsed.length() > 0 && collapsed.charAt(collapsed.length() - 1) != ' ') {
+                collapsed.append(' ');
+            }
+        }
+        return collapsed == null ? decoded : collapsed.toString();
+    }
+
+    private static String absolutify(String absolutePrefix, String href) {
+        return href.startsWith("http:") || href.startsWith("https:") ? href : absolutePrefix + href;
+    }
+}
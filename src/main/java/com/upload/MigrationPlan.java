@@ -0,0 +1,141 @@
+package com.upload;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The paths a sync would transfer, worked out from the crawl and the Nexus 3 inventory without moving any artifact.
+ * Stored as "relativePath TAB size TAB reason" lines in path order, with # comment lines on top, so it can be
+ * reviewed, diffed or trimmed by hand before a migration window and then executed as it is.
+ */
+public class MigrationPlan {
+
+    public static final String MISSING = "missing";
+    public static final String CASE_COLLISION = "case-collision"; // uploaded under a renamed path
+
+    public record Entry(String relativePath, long size, String reason) {
+    }
+
+    private final List<Entry> entries = Collections.synchronizedList(new ArrayList<>());
+
+    // Called from the crawl threads
+    public void add(String relativePath, long size, String reason) {
+        entries.add(new Entry(relativePath, size, reason));
+    }
+
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    public long totalBytes() {
+        long total = 0;
+        synchronized (entries) {
+            for (Entry entry : entries) {
+                total += Math.max(0, entry.size());
+            }
+        }
+        return total;
+    }
+
+    // Entries whose size the listing did not show, counted as 0 bytes in every total
+    public long unknownSizes() {
+        synchronized (entries) {
+            return entries.stream().filter(entry -> entry.size() < 0).count();
+        }
+    }
+
+    public static MigrationPlan load(Path file) throws IOException {
+        MigrationPlan plan = new MigrationPlan();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length != 3) {
+                    throw new IOException(file + ":" + number + ": expected path, size and reason separated by tabs");
+                }
+                try {
+                    plan.add(fields[0], Long.parseLong(fields[1]), fields[2]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + number + ": size is not a number: " + fields[1]);
+                }
+            }
+        }
+        System.out.println("Loaded a plan of " + plan.entries.size() + " paths from " + file);
+        return plan;
+    }
+
+    // Sorted by path and written to a temp file first, like the crawl snapshot
+    public void save(Path file) throws IOException {
+        List<Entry> sorted;
+        synchronized (entries) {
+            sorted = new ArrayList<>(entries);
+        }
+        sorted.sort(Comparator.comparing(Entry::relativePath));
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "plan-", ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write("# " + sorted.size() + " paths, " + totalBytes() + " bytes");
+            writer.newLine();
+            writer.write("# relativePath\tsize\treason");
+            writer.newLine();
+            for (Entry entry : sorted) {
+                writer.write(entry.relativePath());
+                writer.write('\t');
+                writer.write(Long.toString(entry.size()));
+                writer.write('\t');
+                writer.write(entry.reason());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Saved a plan of " + sorted.size() + " paths to " + file);
+    }
+
+    /**
+     * Wall-clock estimate for executing the plan. Every path costs one Nexus 2 and one Nexus 3 request, spread over
+     * the download and upload workers; the bytes go at the rate measured over the download workers' connections
+     * together. The two are added, not overlapped, so the estimate errs on the long side.
+     */
+    public void printEstimate(double nexus2Millis, double nexus3Millis, double bytesPerSecond, int downloadThreads, int uploadThreads) {
+        Map<String, Integer> reasons = new TreeMap<>();
+        synchronized (entries) {
+            entries.forEach(entry -> reasons.merge(entry.reason(), 1, Integer::sum));
+        }
+        long paths = entries.size();
+        long bytes = totalBytes();
+        double requestSeconds = Math.max(paths * nexus2Millis / downloadThreads, paths * nexus3Millis / uploadThreads) / 1000;
+        double transferSeconds = bytesPerSecond > 0 ? bytes / bytesPerSecond : 0;
+
+        System.out.println("\n\nPlan:\n");
+        System.out.println("Paths to transfer:  " + paths + " " + reasons);
+        System.out.println("Bytes to transfer:  " + bytes + " (" + bytes / (1024 * 1024) + " MiB)");
+        if (unknownSizes() > 0) {
+            System.out.println("Paths of unknown size:  " + unknownSizes() + " (counted as 0 bytes)");
+        }
+        System.out.printf("Measured latency:  Nexus 2 %.1f ms, Nexus 3 %.1f ms per request%n", nexus2Millis, nexus3Millis);
+        System.out.println("Measured bandwidth:  " + (bytesPerSecond > 0 ? (long) bytesPerSecond / 1024 + " KiB/s" : "not measured"));
+        System.out.printf("Estimated time:  %s (requests %s over %d download / %d upload workers, transfer %s)%n",
+                duration(requestSeconds + transferSeconds), duration(requestSeconds), downloadThreads, uploadThreads,
+                duration(transferSeconds));
+    }
+
+    private static String duration(double seconds) {
+        long total = (long) Math.ceil(seconds);
+        return String.format("%dh %02dm %02ds", total / 3600, total / 60 % 60, total % 60);
+    }
+}
@@ -0,0 +1,62 @@
+package com.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a multipart/form-data request body without holding file contents in memory.
+ * Form fields and part headers are buffered as small byte arrays; file parts are streamed (from disk or straight
+ * from another response) by the HttpClient while the request is being sent, so the heap cost does not depend on the file size.
+ */
+class MultipartBody {
+
+    private final String boundary;
+    private final List<HttpRequest.BodyPublisher> parts = new ArrayList<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    MultipartBody(String boundary) {
+        this.boundary = boundary;
+    }
+
+    String contentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    MultipartBody field(String name, String value) {
+        write("--" + boundary + "\r\n");
+        write("Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n");
+        write(value + "\r\n");
+        return this;
+    }
+
+    // Any publisher can back a part; its content length decides whether the whole body has a known length
+    MultipartBody part(String fieldName, String filename, String contentType, HttpRequest.BodyPublisher content) {
+        write("--" + boundary + "\r\n");
+        write("Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + filename + "\"\r\n");
+        write("Content-Type: " + contentType + "\r\n\r\n");
+        flushPending();
+        parts.add(content);
+        write("\r\n");
+        return this;
+    }
+
+    HttpRequest.BodyPublisher build() {
+        write("--" + boundary + "--\r\n");
+        flushPending();
+        return HttpRequest.BodyPublishers.concat(parts.toArray(new HttpRequest.BodyPublisher[0]));
+    }
+
+    private void write(String text) {
+        pending.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void flushPending() {
+        if (pending.size() > 0) {
+            parts.add(HttpRequest.BodyPublishers.ofByteArray(pending.toByteArray()));
+            pending.reset();
+        }
+    }
+}
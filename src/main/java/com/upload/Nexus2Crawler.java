@@ -5,52 +5,342 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 public class Nexus2Crawler {
 
     private final String basePath;
-    private final HttpClient client;
+    private final HttpTransport transport;
+    private final int concurrency;
+    private final int perHostLimit;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private CrawlSnapshot snapshot;
+    private boolean trustDirectoryDates;
+    private ListingFormat listingFormat = ListingFormat.STREAM;
+    private Predicate<String> versionMigrated; // null unless metadata enumeration is on
+    private final LongAdder versionsSkipped = new LongAdder();
+
+    /**
+     * How directory listings are fetched and read. STREAM scans the "Index of" page as it arrives, JSOUP reads the
+     * whole page and parses it into a DOM (the original way), API asks Nexus 2's content API for JSON and falls back
+     * to STREAM for folders the API does not answer.
+     */
+    public enum ListingFormat {
+        STREAM, JSOUP, API
+    }
 
     public Nexus2Crawler(String basePath) {
+        this(basePath, 1, 1);
+    }
+
+    // concurrency is the number of directory listings fetched at once, perHostLimit caps how many of those hit the same host
+    public Nexus2Crawler(String basePath, int concurrency, int perHostLimit) {
+        if (concurrency < 1 || perHostLimit < 1) {
+            throw new IllegalArgumentException("concurrency and perHostLimit must be at least 1");
+        }
         this.basePath = basePath;
-        this.client = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.ALWAYS).build();
+        this.concurrency = concurrency;
+        this.perHostLimit = perHostLimit;
+        this.transport = HttpTransport.shared();
+    }
+
+    // Receives each file as soon as its directory listing has been read; must be thread-safe when concurrency > 1
+    public interface FileSink {
+        void accept(ListingEntry file) throws InterruptedException;
+    }
+
+    /**
+     * Delta mode: only files that are new or changed since the snapshot are handed to the sink, and the snapshot is
+     * updated as the crawl goes. Nexus 2 only bumps a folder's date when its direct children change, so folders are
+     * still descended into unless trustDirectoryDates is set, which skips every folder whose date has not moved.
+     */
+    public void setSnapshot(CrawlSnapshot snapshot, boolean trustDirectoryDates) {
+        this.snapshot = snapshot;
+        this.trustDirectoryDates = trustDirectoryDates;
+    }
+
+    public void setListingFormat(ListingFormat listingFormat) {
+        this.listingFormat = listingFormat;
+    }
+
+    /**
+     * Maven enumeration driven by maven-metadata.xml: when a folder lists one, its versions element says which
+     * sub-folders are versions (anything else, e.g. a nested groupId, is still crawled). A release version folder is
+     * then only listed if versionMigrated, given its URL, returns false. SNAPSHOT versions are always listed.
+     */
+    public void setMetadataEnumeration(Predicate<String> versionMigrated) {
+        this.versionMigrated = versionMigrated;
     }
 
-    public Set<String> crawlNexus() throws IOException, InterruptedException {
-        return doCrawlNexus(basePath, new HashSet<>());
+    // Version folders left out by metadata enumeration so far
+    public long versionsSkipped() {
+        return versionsSkipped.sum();
     }
 
-    private Set<String> doCrawlNexus(String path, Set<String> files) throws IOException, InterruptedException {
+    // Files below basePath, kept as a PathTrie so the shared URL prefix and folders are stored once
+    public PathTrie crawlNexus() throws IOException, InterruptedException {
+        PathTrie files = new PathTrie(basePath);
+        crawlNexus(file -> files.add(file.url()));
+        files.compact();
+        return files;
+    }
 
+    // Streaming variant: files are handed to the sink while the crawl is still running, nothing is accumulated here
+    public void crawlNexus(FileSink sink) throws IOException, InterruptedException {
+        if (concurrency == 1) {
+            doCrawlNexus(basePath, sink);
+        } else {
+            doCrawlNexusParallel(sink);
+        }
+    }
+
+    private void doCrawlNexus(String path, FileSink sink) throws IOException, InterruptedException {
+        for (ListingEntry entry : skipMigratedVersions(path, listDirectory(path))) {
+            if (entry.isDirectory()) {
+                if (!isUnchangedDirectory(entry)) {
+                    doCrawlNexus(entry.url(), sink);
+                }
+            } else if (isNewOrModified(entry)) {
+                sink.accept(entry);
+            }
+        }
+    }
+
+    // Breadth-first crawl: every directory found becomes a task on the pool's queue, which acts as the frontier
+    private void doCrawlNexusParallel(FileSink sink) throws IOException, InterruptedException {
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        AtomicInteger outstanding = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        try {
+            visited.add(basePath);
+            submitDirectory(pool, basePath, sink, visited, outstanding, failure, done);
+            done.await();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Exception e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof InterruptedException) {
+            throw (InterruptedException) e;
+        } else if (e != null) {
+            throw new IOException("crawl failed", e);
+        }
+    }
+
+    private void submitDirectory(ExecutorService pool, String path, FileSink sink, Set<String> visited,
+                                 AtomicInteger outstanding, AtomicReference<Exception> failure, CountDownLatch done) {
+        outstanding.incrementAndGet();
+        pool.execute(() -> {
+            try {
+                if (failure.get() == null) {
+                    for (ListingEntry entry : skipMigratedVersions(path, listDirectory(path))) {
+                        if (!entry.isDirectory()) {
+                            if (isNewOrModified(entry)) {
+                                sink.accept(entry);
+                            }
+                        } else if (!isUnchangedDirectory(entry) && visited.add(entry.url())) {
+                            submitDirectory(pool, entry.url(), sink, visited, outstanding, failure, done);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                if (outstanding.decrementAndGet() == 0) {
+                    done.countDown();
+                }
+            }
+        });
+    }
+
+    private boolean isNewOrModified(ListingEntry file) {
+        return snapshot == null || snapshot.update(file);
+    }
+
+    private boolean isUnchangedDirectory(ListingEntry directory) {
+        return snapshot != null && trustDirectoryDates && !snapshot.update(directory);
+    }
+
+    // Fetch one Nexus 2 directory listing and return its entries with absolute URLs, folders keep their trailing slash
+    private List<ListingEntry> listDirectory(String path) throws IOException, InterruptedException {
         System.out.println("Crawling: " + path);
+        Semaphore permits = hostPermits.computeIfAbsent(HttpTransport.serverKey(URI.create(path)), server -> new Semaphore(perHostLimit));
+        SyncMetrics.Stage metrics = SyncMetrics.shared().stage("crawl");
+        permits.acquire();
+        long start = metrics.begin();
+        boolean success = false;
+        try {
+            // the permit is held while the body is read, which is now interleaved with parsing it
+            String apiUrl = listingFormat == ListingFormat.API ? ListingReader.contentApiUrl(path) : null;
+            if (apiUrl != null) {
+                HttpResponse<InputStream> response = fetch(apiUrl, "application/json");
+                try (InputStream body = response.body()) {
+                    if (response.statusCode() == 200) {
+                        List<ListingEntry> entries = ListingReader.readContentApi(path, body);
+                        success = true;
+                        return entries;
+                    }
+                }
+            }
+            HttpResponse<InputStream> response = fetch(path, "text/html");
+            try (InputStream body = response.body()) {
+                List<ListingEntry> entries = listingFormat == ListingFormat.JSOUP
+                        ? parseListing(path, new String(body.readAllBytes(), StandardCharsets.UTF_8))
+                        : ListingReader.readHtml(path, body);
+                success = response.statusCode() == 200;
+                return entries;
+            }
+        } finally {
+            metrics.end(start, success);
+            permits.release();
+        }
+    }
+
+    private List<ListingEntry> skipMigratedVersions(String path, List<ListingEntry> entries) throws IOException, InterruptedException {
+        if (versionMigrated == null || entries.stream().noneMatch(entry -> entry.url().equals(path + "maven-metadata.xml"))) {
+            return entries;
+        }
+        Set<String> versions = readMetadataVersions(path + "maven-metadata.xml");
+        if (versions.isEmpty()) {
+            return entries;
+        }
+        List<ListingEntry> remaining = new ArrayList<>(entries.size());
+        for (ListingEntry entry : entries) {
+            String name = entry.url().substring(path.length(), entry.url().length() - 1);
+            if (entry.isDirectory() && versions.contains(name) && !name.endsWith("-SNAPSHOT") && versionMigrated.test(entry.url())) {
+                versionsSkipped.increment();
+            } else {
+                remaining.add(entry);
+            }
+        }
+        if (remaining.size() < entries.size()) {
+            System.out.println("Skipping " + (entries.size() - remaining.size()) + " migrated versions in " + path);
+        }
+        return remaining;
+    }
+
+    // Versions an artifact-level maven-metadata.xml lists, empty when it cannot be read
+    private Set<String> readMetadataVersions(String url) throws IOException, InterruptedException {
+        Semaphore permits = hostPermits.computeIfAbsent(HttpTransport.serverKey(URI.create(url)), server -> new Semaphore(perHostLimit));
+        SyncMetrics.Stage metrics = SyncMetrics.shared().stage("crawl");
+        permits.acquire();
+        long start = metrics.begin();
+        boolean success = false;
+        try {
+            HttpResponse<InputStream> response = fetch(url, "application/xml");
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200) {
+                    return Set.of();
+                }
+                Set<String> versions = parseMetadataVersions(body);
+                success = true;
+                return versions;
+            }
+        } catch (XMLStreamException e) {
+            System.err.println("Could not read " + url + ": " + e.getMessage());
+            return Set.of();
+        } finally {
+            metrics.end(start, success);
+            permits.release();
+        }
+    }
+
+    // Text of every versioning/versions/version element, read with StAX and with DTDs and external entities off
+    static Set<String> parseMetadataVersions(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        Set<String> versions = new HashSet<>();
+        try {
+            int depth = 0;
+            boolean inVersions = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    // metadata(1) / versioning(2) / versions(3) / version(4)
+                    if (depth == 3 && reader.getLocalName().equals("versions")) {
+                        inVersions = true;
+                    } else if (inVersions && depth == 4 && reader.getLocalName().equals("version")) {
+                        versions.add(reader.getElementText().trim());
+                        depth--;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == 3) {
+                        inVersions = false;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return versions;
+    }
+
+    private HttpResponse<InputStream> fetch(String url, String accept) throws IOException, InterruptedException {
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(path))
+                .uri(URI.create(url))
+                .header("Accept", accept)
                 .GET()
                 .build();
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-        Document doc = Jsoup.parse(response.body());
+        return transport.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
 
-        // Nexus 2 directory listing has links to files and folders
+    // The original Jsoup parse, kept as -Dsync.listingParser=jsoup and as the benchmark baseline
+    static List<ListingEntry> parseListing(String path, String html) {
+        Document doc = Jsoup.parse(html);
+
+        // Nexus 2 directory listing has links to files and folders, each in a table row
+        // followed by "Last Modified" and "Size" cells
+        List<ListingEntry> entries = new ArrayList<>();
         Elements links = doc.select("a[href]");
         for (Element link : links) {
             String href = link.attr("href");
             if (href.equals("../") || href.startsWith("?")) continue;
 
-            String absoluteHref = absolutify(path, href);
-            if (href.endsWith("/")) {
-                files.addAll(doCrawlNexus(absoluteHref, files));
-            } else {
-                files.add(absoluteHref);
+            String lastModified = "";
+            long size = -1;
+            Element row = link.closest("tr");
+            if (row != null) {
+                Elements cells = row.select("> td");
+                if (cells.size() > 2) {
+                    lastModified = cells.get(1).text().trim();
+                    size = ListingEntry.parseSize(cells.get(2).text());
+                }
             }
+            entries.add(new ListingEntry(absolutify(path, href), lastModified, size));
         }
-        return files;
+        return entries;
     }
 
     private static String absolutify(String absolutePrefix, String href) {
@@ -71,12 +361,11 @@ public class Nexus2Crawler {
 
     public static void main(String[] args) throws IOException, InterruptedException {
         System.out.println("Crawling Nexus 2...");
-        Nexus2Crawler nexus2Crawler = new Nexus2Crawler("https://nexus.company:8443/content/repositories/repository/file/subfile/artifactID/version/");
-        Set<String> nexus2Files = nexus2Crawler.crawlNexus();
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        Nexus2Crawler nexus2Crawler = new Nexus2Crawler("https://nexus.company:8443/content/repositories/repository/file/subfile/artifactID/version/", concurrency, concurrency);
+        PathTrie nexus2Files = nexus2Crawler.crawlNexus();
 
-        nexus2Files.stream()
-                .sorted()
-                .forEach(System.out::println);
+        nexus2Files.forEach(System.out::println); // already sorted
     }
 
 }
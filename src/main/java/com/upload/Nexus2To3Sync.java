@@ -2,8 +2,8 @@ package com.upload;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.Files;
@@ -11,6 +11,13 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -28,14 +35,128 @@ public class Nexus2To3Sync {
     private static final String NEXUS3_USERNAME = "username"; // or your username
     private static final String NEXUS3_PASSWORD = "password"; // or your password
 
-    private final HttpClient client;
+    private final HttpTransport transport;
+    private final String nexus3Auth;
+    private Nexus3Inventory inventory; // null unless -Dsync.inventory=true
+    private SyncJournal journal; // null unless -Dsync.journal is set
+    private CrawlSnapshot snapshot; // null unless -Dsync.snapshot is set
+    private NugetVersionIndex nugetVersions; // nuget with -Dsync.nuget.versionIndex=true
+    private ShardLeases shardLeases; // null unless -Dsync.shard.dir is set
+    private MigrationPlan plan; // null unless -Dsync.plan.execute is set
+    private CaseCollisionIndex caseIndex; // null with -Dsync.caseCollisions=off
+    private CaseCollisionIndex.Policy caseCollisionPolicy;
+    private SpoolCache spoolCache; // null unless -Dsync.spool.dir is set
+    private boolean verifyChecksums; // maven2 with -Dsync.checksums=true
 
-    private static int numSkips, numSuccessfulUploads, numHackedUploads, numFailedUploads;
-    static List<String> failedUploads = new LinkedList<>();
+    // Nexus 2 sidecar SHA-1s already fetched by the check, and checksums computed while downloading, until they are used
+    private final Map<String, String> nexus2Sha1s = new ConcurrentHashMap<>();
+    private final Map<String, String> downloadedChecksums = new ConcurrentHashMap<>();
 
-    private static final Predicate<String> MAVEN2_FILTER = url -> !url.endsWith(".sha1") && !url.endsWith(".md5") && !url.endsWith(".xml");
+    // Paths recorded as failed in this run, so a spooled copy is kept for a retry
+    private final Set<String> failedPaths = ConcurrentHashMap.newKeySet();
+
+    // Crawled paths whose outcome is not known yet; whatever is left when the run ends, e.g. because a worker threw,
+    // is taken out of the crawl snapshot so the next delta run offers it again
+    private final Set<String> unsettledPaths = ConcurrentHashMap.newKeySet();
+
+    // Sharded mode lists Nexus 2 once per process and replays that crawl in every later claim round. Only the sizes
+    // that route a file to the large lane are kept (absolute URL -> size), the rest replay as unknown
+    private PathTrie shardCrawl;
+    private final Map<String, Long> shardCrawlSizes = new ConcurrentHashMap<>();
+
+    // Nexus 2 path -> the path it is uploaded under, for case collisions renamed by the rename policy
+    private final Map<String, String> renamedPaths = new ConcurrentHashMap<>();
+
+    // Updated from the pipeline's worker threads
+    private static final SyncMetrics metrics = SyncMetrics.shared();
+    static List<String> failedUploads = Collections.synchronizedList(new LinkedList<>());
+    static List<String> reportedCollisions = Collections.synchronizedList(new LinkedList<>());
+
+    static final Predicate<String> MAVEN2_FILTER = url -> !url.endsWith(".sha1") && !url.endsWith(".md5") && !url.endsWith(".xml");
     private static final Predicate<String> NUGET_FILTER = url -> true;
 
+    // Crawl tuning, e.g. -Dsync.crawl.threads=32 -Dsync.crawl.perHost=16 (1 thread keeps the original depth-first crawl)
+    private static final int CRAWL_THREADS = Integer.getInteger("sync.crawl.threads", 1);
+    private static final int CRAWL_PER_HOST = Integer.getInteger("sync.crawl.perHost", CRAWL_THREADS);
+    // stream (default) scans each listing page as it arrives, jsoup parses it into a DOM, api uses the JSON content API
+    private static final Nexus2Crawler.ListingFormat LISTING_FORMAT =
+            Nexus2Crawler.ListingFormat.valueOf(System.getProperty("sync.listingParser", "stream").toUpperCase());
+
+    // Pipeline tuning; -Dsync.pipeline=false falls back to crawling everything first and syncing one path at a time
+    private static final boolean PIPELINE = Boolean.parseBoolean(System.getProperty("sync.pipeline", "true"));
+    private static final int CHECK_THREADS = Integer.getInteger("sync.check.threads", 8);
+    private static final int DOWNLOAD_THREADS = Integer.getInteger("sync.download.threads", 4);
+    private static final int UPLOAD_THREADS = Integer.getInteger("sync.upload.threads", 4);
+
+    // maven2 only: -Dsync.maven.enumerate=metadata reads each artifact's maven-metadata.xml and does not list the folders
+    // of release versions whose pom is already in Nexus 3 (needs the inventory, which it loads); crawl lists everything
+    private static final boolean METADATA_ENUMERATION = System.getProperty("sync.maven.enumerate", "crawl").equals("metadata");
+
+    // nuget only: answer existence checks from one flat-container versions lookup per package id instead of one GET per version
+    private static final boolean NUGET_VERSION_INDEX = Boolean.getBoolean("sync.nuget.versionIndex");
+
+    // Pre-load the Nexus 3 asset listing once and answer existence checks from it instead of one GET per path
+    private static final boolean USE_INVENTORY = Boolean.getBoolean("sync.inventory");
+
+    // Stream each artifact from Nexus 2 straight into the Nexus 3 upload instead of going through a temp file
+    private static final boolean PASS_THROUGH = Boolean.getBoolean("sync.passThrough");
+
+    // Files of at least -Dsync.download.rangedThresholdMB (256, 0 = never) are fetched as parallel Range requests of
+    // -Dsync.download.segmentMB (32) over -Dsync.download.connections (4), when Nexus 2 advertises Accept-Ranges
+    private static final long RANGED_THRESHOLD = Long.getLong("sync.download.rangedThresholdMB", 256) << 20;
+    private static final long SEGMENT_BYTES = Long.getLong("sync.download.segmentMB", 32) << 20;
+    private static final int SEGMENT_CONNECTIONS = Integer.getInteger("sync.download.connections", 4);
+
+    // Append-only outcome journal, e.g. -Dsync.journal=sync.journal; paths it lists as done are skipped on restart
+    private static final String JOURNAL_FILE = System.getProperty("sync.journal");
+
+    // Delta sync: -Dsync.snapshot=crawl.snapshot.gz remembers each listing entry's date and size, later runs only sync
+    // new or modified files. -Dsync.snapshot.trustDirectoryDates=true also skips folders whose date has not changed.
+    private static final String SNAPSHOT_FILE = System.getProperty("sync.snapshot");
+    private static final boolean TRUST_DIRECTORY_DATES = Boolean.getBoolean("sync.snapshot.trustDirectoryDates");
+
+    // maven2 only: upload all missing files of one groupId/artifactId/version in a single component request
+    private static final boolean GROUP_BY_GAV = Boolean.getBoolean("sync.maven.groupByGav");
+
+    // maven2 only: checksum artifacts while they stream and compare against the .sha1 sidecars and Nexus 3's checksums
+    private static final boolean VERIFY_CHECKSUMS = Boolean.getBoolean("sync.checksums");
+    private static final boolean SHA256 = Boolean.getBoolean("sync.checksums.sha256");
+
+    // Let an AIMD limiter find how many requests Nexus 3 can take at once, retrying 429/502/503/504 with backoff.
+    // The stage thread counts become upper bounds, so raise them when turning this on.
+    private static final boolean ADAPTIVE = Boolean.getBoolean("sync.adaptive");
+
+    // Sharded mode: processes sharing -Dsync.shard.dir split the paths into -Dsync.shards shards (hashed by artifact or
+    // package id folder), claiming -Dsync.shard.claim at a time under leases that expire after -Dsync.shard.leaseSeconds
+    private static final String SHARD_DIR = System.getProperty("sync.shard.dir");
+    private static final int SHARDS = Integer.getInteger("sync.shards", 64);
+    private static final int SHARD_CLAIM = Integer.getInteger("sync.shard.claim", 8);
+    private static final long SHARD_LEASE_SECONDS = Long.getLong("sync.shard.leaseSeconds", 120);
+
+    // Dry run: -Dsync.plan.write=plan.tsv crawls and compares with the Nexus 3 inventory, writes the paths a sync would
+    // transfer and estimates how long that takes, timing the first -Dsync.plan.probeMB (8) of the largest one for bandwidth.
+    // -Dsync.plan.execute=plan.tsv then syncs exactly the planned paths without crawling or checking again.
+    private static final String PLAN_WRITE = System.getProperty("sync.plan.write");
+    private static final String PLAN_EXECUTE = System.getProperty("sync.plan.execute");
+    private static final long PLAN_PROBE_BYTES = Long.getLong("sync.plan.probeMB", 8) << 20;
+
+    // Paths that differ from one in Nexus 3 or crawled earlier only in letter case are found before they are transferred,
+    // then -Dsync.caseCollisions=skip (default) leaves them out, rename uploads them with a -caseN suffix on the
+    // differing segment (maven2), report lists them as unresolved, off transfers them anyway. The Nexus 3 side is only
+    // covered when the inventory is loaded.
+    private static final CaseCollisionIndex.Policy CASE_COLLISIONS =
+            CaseCollisionIndex.Policy.valueOf(System.getProperty("sync.caseCollisions", "skip").toUpperCase());
+
+    // Keep the downloads of failed uploads in -Dsync.spool.dir, up to -Dsync.spool.maxMB (1024) with the least recently
+    // used evicted; uploaded files are deleted. They are retried from there at the end of the run, and reused instead of
+    // downloaded next run.
+    private static final String SPOOL_DIR = System.getProperty("sync.spool.dir");
+    private static final long SPOOL_MAX_BYTES = Long.getLong("sync.spool.maxMB", 1024) << 20;
+
+    // Live counters and per-stage latencies: always on JMX, and every interval as a progress line plus an optional JSON file
+    private static final String METRICS_FILE = System.getProperty("sync.metrics.file");
+    private static final long METRICS_INTERVAL_SECONDS = Long.getLong("sync.metrics.intervalSeconds", 30);
+
 
     public Nexus2To3Sync(Predicate<String> urlFilter, String nexus2RepositoryBase, String nexus2RepositoryName, String nexus3RepositoryBase, String nexus3RepositoryName, String nexus3RestApiBase, Function<String, String> urlStripper, Uploader uploader) {
         this.urlFilter = urlFilter;
@@ -47,45 +168,160 @@ public class Nexus2To3Sync {
         this.urlStripper = urlStripper;
         this.uploader = uploader;
 
-        this.client = HttpClient.newHttpClient();
-        this.client.followRedirects();
+        this.transport = HttpTransport.shared();
+        this.nexus3Auth = HttpTransport.basicAuth(NEXUS3_USERNAME, NEXUS3_PASSWORD);
     }
 
     public static void main(String[] args) throws Exception {
 
         Nexus2To3Sync instance = makeInstance(args);
-        Set<String> allFiles = instance.crawlNexus2(); // crawl root path
+        metrics.registerMBean();
+        if (METRICS_INTERVAL_SECONDS > 0) {
+            metrics.startReporting(METRICS_FILE == null ? null : Paths.get(METRICS_FILE), METRICS_INTERVAL_SECONDS);
+        }
+        if (ADAPTIVE) {
+            instance.limitNexus3();
+        }
+        if (JOURNAL_FILE != null) {
+            instance.journal = SyncJournal.open(Paths.get(JOURNAL_FILE));
+        }
+        if (SPOOL_DIR != null) {
+            SpoolCache spoolCache = SpoolCache.open(Paths.get(SPOOL_DIR), SPOOL_MAX_BYTES);
+            instance.spoolCache = spoolCache;
+            metrics.gauge("spool.hits", spoolCache::hits);
+            metrics.gauge("spool.bytes", spoolCache::bytes);
+        }
+        try {
+            // checksum verification takes Nexus 3's SHA-1s from the asset listing rather than a request per path
+            if (USE_INVENTORY || instance.metadataEnumeration() || PLAN_WRITE != null || instance.verifyChecksums
+                    || instance.caseIndexNeedsInventory()) {
+                instance.loadInventory();
+            }
+            instance.indexCaseCollisions();
+            if (SNAPSHOT_FILE != null && SHARD_DIR != null) {
+                // each process would record the whole crawl, including the shards it never synced
+                System.out.println("-Dsync.snapshot is ignored in sharded mode");
+            } else if (SNAPSHOT_FILE != null) {
+                instance.snapshot = CrawlSnapshot.load(Paths.get(SNAPSHOT_FILE));
+            }
+            if (PLAN_WRITE != null) {
+                // nothing was transferred, so the snapshot is not saved either: the plan's paths must stay "modified"
+                instance.writePlan(Paths.get(PLAN_WRITE));
+                return;
+            }
+            if (PLAN_EXECUTE != null) {
+                instance.plan = MigrationPlan.load(Paths.get(PLAN_EXECUTE));
+            }
+            if (SHARD_DIR != null) {
+                runSharded(instance);
+            } else {
+                runOnce(instance);
+            }
+            // only a completed crawl may become the baseline for the next delta run
+            if (instance.snapshot != null) {
+                instance.invalidateUnsettled();
+                instance.snapshot.save(Paths.get(SNAPSHOT_FILE));
+            }
+        } finally {
+            if (instance.journal != null) {
+                instance.journal.close();
+            }
+            if (instance.spoolCache != null) {
+                instance.spoolCache.save();
+            }
+        }
 
-        //chance allFiles from absolute URLs to relative URLs so they can be concatenated with the Nexus 3 base
-        Set<String> strippedUrls = instance.getStrippedNexus2Urls(allFiles);
+        System.out.println("\n\nResults:\n");
+        System.out.println("Num skips:  " + metrics.skips.sum());
+        System.out.println("Num successful uploads:  " + metrics.successfulUploads.sum());
+        System.out.println("Num case collisions:  " + metrics.caseCollisions.sum());
+        System.out.println("Num failed uploads:  " + metrics.failedUploads.sum());
+        if (instance.verifyChecksums) {
+            System.out.println("Num checksum mismatches:  " + metrics.checksumMismatches.sum());
+        }
+        if (instance.spoolCache != null) {
+            System.out.println("Num downloads served from the spool cache:  " + instance.spoolCache.hits());
+        }
+        if (instance.metadataEnumeration()) {
+            System.out.println("Num migrated versions not listed:  " + metrics.getGauges().getOrDefault("crawl.versionsSkipped", 0L));
+        }
+        metrics.printStageSummary();
+        if (METRICS_FILE != null) {
+            metrics.writeSnapshot(Paths.get(METRICS_FILE), metrics.snapshot());
+        }
+        System.out.println("\nHere are the failed uploads:\n\n");
+        failedUploads.forEach(System.out::println);
+        if (!reportedCollisions.isEmpty()) {
+            System.out.println("\nHere are the case collisions left for you to resolve:\n\n");
+            reportedCollisions.forEach(System.out::println);
+        }
+    }
+
+    private static void runOnce(Nexus2To3Sync instance) throws IOException, InterruptedException {
+        if (PIPELINE) {
+            boolean groupByGav = GROUP_BY_GAV && instance.uploader instanceof NexusUploaderMaven;
+            new SyncPipeline(instance, CHECK_THREADS, DOWNLOAD_THREADS, UPLOAD_THREADS, PASS_THROUGH, groupByGav).run();
+        } else {
+            runSequential(instance);
+        }
+    }
 
-        Set<String> relativePaths = new TreeSet<>();
-        for (String url : strippedUrls) {
-            if (instance.urlFilter.test(url)) {
-                relativePaths.add(url);
+    // Claims shards and syncs them, a round at a time, until every shard is done by this or another process. Nexus 2
+    // is crawled in the first round only; later rounds replay that crawl for the shards they claimed.
+    // While nothing is claimable the process waits, so shards of a process that died are picked up once its lease expires.
+    private static void runSharded(Nexus2To3Sync instance) throws IOException, InterruptedException {
+        try (ShardLeases leases = new ShardLeases(Paths.get(SHARD_DIR), SHARDS, SHARD_LEASE_SECONDS * 1000)) {
+            instance.shardLeases = leases;
+            System.out.println("Sharded sync as " + leases.owner() + ", " + SHARDS + " shards in " + SHARD_DIR);
+            while (!leases.allDone()) {
+                List<Integer> claimed = leases.claim(SHARD_CLAIM);
+                if (claimed.isEmpty()) {
+                    Thread.sleep(leases.pollMillis());
+                    continue;
+                }
+                System.out.println("Syncing shards " + claimed);
+                runOnce(instance);
+                leases.complete(claimed);
             }
         }
+    }
 
-        for (String relativePath : relativePaths) {
+    private static void runSequential(Nexus2To3Sync instance) throws IOException, InterruptedException {
+        if (instance.plan != null) {
+            for (MigrationPlan.Entry entry : instance.plan.entries()) {
+                if (instance.acceptPlanned(entry)) {
+                    Path downloadedFile = instance.downloadFromNexus2(entry.relativePath());
+                    instance.uploadToNexus3(downloadedFile, entry.relativePath());
+                    instance.releaseDownload(downloadedFile, entry.relativePath());
+                }
+            }
+        } else {
+            runSequentialCrawl(instance);
+        }
+        for (String relativePath : instance.spooledRetries()) {
+            instance.retryFromSpool(relativePath);
+        }
+    }
+
+    private static void runSequentialCrawl(Nexus2To3Sync instance) throws IOException, InterruptedException {
+        PathTrie allFiles = instance.crawlNexus2(); // crawl root path
+
+        for (String relativePath : instance.sortedRelativePaths(allFiles)) {
+            instance.offer(relativePath);
+            if (instance.skipIfJournaled(relativePath) || instance.skipCaseCollision(relativePath)) {
+                continue;
+            }
             System.out.println("Checking: " + relativePath);
-            if (instance.existsInNexus3(relativePath)) {
+            if (instance.isUpToDateInNexus3(relativePath)) {
                 System.out.println("Exists in Nexus 3, skipping.");
-                numSkips++;
+                instance.recordSkip(relativePath);
             } else {
                 System.out.println("Missing in Nexus 3, syncing...");
                 Path downloadedFile = instance.downloadFromNexus2(relativePath);
-                instance.uploadToNexus3(downloadedFile, relativePath.replaceAll("/Artifact", "/Artifact"));
-                Files.delete(downloadedFile);
+                instance.uploadToNexus3(downloadedFile, relativePath);
+                instance.releaseDownload(downloadedFile, relativePath);
             }
         }
-
-        System.out.println("\n\nResults:\n");
-        System.out.println("Num skips:  " + numSkips);
-        System.out.println("Num successful uploads:  " + numSuccessfulUploads);
-        System.out.println("Num hacked uploads:  " + numHackedUploads);
-        System.out.println("Num failed uploads:  " + numFailedUploads);
-        System.out.println("\nHere are the failed uploads:\n\n");
-        failedUploads.forEach(System.out::println);
     }
 
     private static Nexus2To3Sync makeInstance(String[] args) {
@@ -108,12 +344,12 @@ public class Nexus2To3Sync {
         } else if ("nuget".equals(repositoryFormat)) {
             urlFilter = NUGET_FILTER;
             urlStripper = url -> url.substring(0, url.lastIndexOf("/"));
-            uploader = new NexusUploaderNuget(restApiEndpoint);
+            uploader = new NexusUploaderNuget(restApiEndpoint, NEXUS3_USERNAME, NEXUS3_PASSWORD);
         } else {
             throw new IllegalArgumentException("only maven2 and nuget are supported repository formats");
         }
 
-        return new Nexus2To3Sync(
+        Nexus2To3Sync instance = new Nexus2To3Sync(
                 urlFilter,
                 nexus2RepositoryBase,
                 nexus2RepositoryName,
@@ -122,31 +358,384 @@ public class Nexus2To3Sync {
                 nexus3RestApiBase,
                 urlStripper,
                 uploader);
+        // only Maven repositories carry .sha1 sidecars to verify against
+        instance.verifyChecksums = VERIFY_CHECKSUMS && "maven2".equals(repositoryFormat);
+        if (NUGET_VERSION_INDEX && "nuget".equals(repositoryFormat)) {
+            instance.nugetVersions = new NugetVersionIndex(flatContainerUrl(nexus3RepositoryBase, nexus3RepositoryName),
+                    instance.nexus3Auth, instance.transport);
+        }
+        instance.caseCollisionPolicy = CASE_COLLISIONS;
+        if (CASE_COLLISIONS == CaseCollisionIndex.Policy.RENAME && !"maven2".equals(repositoryFormat)) {
+            // a NuGet package's id is inside the .nupkg, renaming the path would not change it
+            System.out.println("-Dsync.caseCollisions=rename only applies to maven2, skipping case collisions instead");
+            instance.caseCollisionPolicy = CaseCollisionIndex.Policy.SKIP;
+        }
+        return instance;
+    }
+
+    // The repository name may or may not end with "/" (both are in use), so the parts are joined with explicit separators
+    private static String flatContainerUrl(String nexus3RepositoryBase, String nexus3RepositoryName) {
+        return trimSlashes(nexus3RepositoryBase) + "/" + trimSlashes(nexus3RepositoryName) + "/v3/flatcontainer/";
+    }
+
+    private static String trimSlashes(String part) {
+        int start = part.startsWith("/") ? 1 : 0;
+        int end = part.endsWith("/") ? part.length() - 1 : part.length();
+        return part.substring(start, Math.max(start, end));
     }
 
     private String repoPath() {
         return this.nexus2RepositoryBase + this.nexus2RepositoryName;
     }
 
-    private Set<String> getStrippedNexus2Urls(Set<String> absoluteUrls) {
+    // Absolute crawl results to the sorted, filtered relative paths the sequential mode walks, built lazily while iterating
+    Iterable<String> sortedRelativePaths(PathTrie absoluteUrls) {
+        //chance allFiles from absolute URLs to relative URLs so they can be concatenated with the Nexus 3 base
+        PathTrie strippedUrls = getStrippedNexus2Urls(absoluteUrls);
+
+        // the trie iterates in sorted order already, so filtering is all that is left
+        return () -> strippedUrls.stream().filter(this.urlFilter.and(this::inOwnedShard)).iterator();
+    }
+
+    // A view of the same trie with the repository URL cut off, nothing is copied
+    private PathTrie getStrippedNexus2Urls(PathTrie absoluteUrls) {
+        return absoluteUrls.relativeTo(repoPath());
+    }
+
+    // Strip and filter a single crawled URL, null if it is outside the repository or filtered out
+    String toRelativePath(String nexus2Url) {
         String repoPath = repoPath();
-        Set<String> strippedNexus2Urls = new HashSet<>();
-        for (String nexus2Url : absoluteUrls) {
-            if (nexus2Url.startsWith(repoPath)) {
-                String strippedUrl = nexus2Url.substring(repoPath().length());
-                strippedNexus2Urls.add(strippedUrl);
-            }
+        if (!nexus2Url.startsWith(repoPath)) {
+            return null;
         }
-        return strippedNexus2Urls;
+        String strippedUrl = nexus2Url.substring(repoPath.length());
+        return this.urlFilter.test(strippedUrl) && inOwnedShard(strippedUrl) ? strippedUrl : null;
+    }
+
+    private boolean inOwnedShard(String relativePath) {
+        return this.shardLeases == null || this.shardLeases.owns(this.shardLeases.shardOf(relativePath));
+    }
+
+    // Checked again right before transferring: a shard can be taken over while its paths wait in a queue
+    boolean leaseLost(String relativePath) {
+        if (inOwnedShard(relativePath)) {
+            return false;
+        }
+        System.out.println("Lease lost, leaving " + relativePath + " to the shard's new owner");
+        return true;
     }
 
     // Recursively crawl Nexus 2 directory listings for files
-    private Set<String> crawlNexus2() throws IOException, InterruptedException {
-        return new Nexus2Crawler(repoPath()).crawlNexus();
+    private PathTrie crawlNexus2() throws IOException, InterruptedException {
+        if (this.shardLeases == null) {
+            return newCrawler().crawlNexus();
+        }
+        if (this.shardCrawl == null) {
+            this.shardCrawl = newCrawler().crawlNexus();
+        }
+        return this.shardCrawl;
+    }
+
+    // Same crawl, but each file is handed to the sink as soon as it is found
+    void crawlNexus2(Nexus2Crawler.FileSink sink) throws IOException, InterruptedException {
+        if (this.shardLeases == null) {
+            newCrawler().crawlNexus(sink);
+            return;
+        }
+        if (this.shardCrawl != null) {
+            // a later claim round: replay the first crawl, the sink drops the paths of shards not owned now
+            for (String url : this.shardCrawl) {
+                sink.accept(new ListingEntry(url, "", this.shardCrawlSizes.getOrDefault(url, -1L)));
+            }
+            return;
+        }
+        PathTrie files = new PathTrie(repoPath());
+        newCrawler().crawlNexus(file -> {
+            files.add(file.url());
+            if (SyncPipeline.isLargeFile(file.size())) {
+                this.shardCrawlSizes.put(file.url(), file.size());
+            }
+            sink.accept(file);
+        });
+        files.compact();
+        this.shardCrawl = files;
+    }
+
+    private Nexus2Crawler newCrawler() {
+        Nexus2Crawler crawler = new Nexus2Crawler(repoPath(), CRAWL_THREADS, CRAWL_PER_HOST);
+        crawler.setListingFormat(LISTING_FORMAT);
+        if (metadataEnumeration()) {
+            crawler.setMetadataEnumeration(this::versionInNexus3);
+            metrics.gauge("crawl.versionsSkipped", crawler::versionsSkipped);
+        }
+        if (this.snapshot != null) {
+            crawler.setSnapshot(this.snapshot, TRUST_DIRECTORY_DATES);
+        }
+        return crawler;
+    }
+
+    private boolean metadataEnumeration() {
+        return METADATA_ENUMERATION && this.uploader instanceof NexusUploaderMaven;
+    }
+
+    // A release version counts as migrated once its pom, g/a/v/a-v.pom, is in the Nexus 3 inventory
+    private boolean versionInNexus3(String versionFolderUrl) {
+        String folder = versionFolderUrl.substring(repoPath().length());
+        String[] segments = folder.split("/");
+        if (segments.length < 3) {
+            return false;
+        }
+        String pom = folder + segments[segments.length - 2] + "-" + segments[segments.length - 1] + ".pom";
+        return this.inventory.contains(this.urlStripper.apply(pom));
+    }
+
+    // Crawls without transferring anything and writes what a sync would transfer, with a time estimate
+    private void writePlan(Path file) throws IOException, InterruptedException {
+        if (this.verifyChecksums) {
+            System.out.println("The plan compares paths by presence only; checksums are compared by a normal sync");
+        }
+        MigrationPlan plan = new MigrationPlan();
+        LongAdder present = new LongAdder();
+        LongAdder collisions = new LongAdder();
+        crawlNexus2(entry -> {
+            String relativePath = toRelativePath(entry.url());
+            if (relativePath == null || isJournaledAsDone(relativePath)) {
+                return;
+            }
+            // only noted here; executing the plan applies the policy, against the inventory and the plan's paths
+            String collidesWith = this.caseIndex == null ? null : this.caseIndex.collision(this.urlStripper.apply(relativePath));
+            if (collidesWith != null) {
+                collisions.increment();
+                if (this.caseCollisionPolicy == CaseCollisionIndex.Policy.RENAME) {
+                    plan.add(relativePath, entry.size(), MigrationPlan.CASE_COLLISION);
+                }
+                return;
+            }
+            String reason = planReason(relativePath);
+            if (reason != null) {
+                plan.add(relativePath, entry.size(), reason);
+            } else {
+                present.increment();
+            }
+        });
+        plan.save(file);
+        System.out.println("Already in Nexus 3:  " + present.sum());
+        if (collisions.sum() > 0) {
+            System.out.println("Case collisions:  " + collisions.sum() + " (" + this.caseCollisionPolicy.name().toLowerCase() + ")");
+        }
+        plan.printEstimate(metrics.stage("crawl").meanMillis(), probeNexus3Latency(plan), probeBandwidth(plan),
+                DOWNLOAD_THREADS, UPLOAD_THREADS);
+    }
+
+    // Why a sync would transfer the path, null when Nexus 3 has it already. Answered from the inventory alone, so a
+    // dry run costs no request per path
+    private String planReason(String relativePath) {
+        return this.inventory.contains(this.urlStripper.apply(relativePath)) ? null : MigrationPlan.MISSING;
+    }
+
+    // Median of a few GETs of a planned (so missing) path in Nexus 3, after one that warms up the connection
+    private double probeNexus3Latency(MigrationPlan plan) throws InterruptedException {
+        if (plan.entries().isEmpty()) {
+            return 0;
+        }
+        String url = this.urlStripper.apply(this.nexus3RepositoryBase + this.nexus3RepositoryName + plan.entries().get(0).relativePath());
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Authorization", this.nexus3Auth)
+                .GET()
+                .build();
+        double[] millis = new double[5];
+        try {
+            for (int i = -1; i < millis.length; i++) {
+                long start = System.nanoTime();
+                transport.send(request, HttpResponse.BodyHandlers.discarding());
+                if (i >= 0) {
+                    millis[i] = (System.nanoTime() - start) / 1_000_000.0;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not measure Nexus 3 latency: " + e.getMessage());
+            return 0;
+        }
+        Arrays.sort(millis);
+        return millis[millis.length / 2];
+    }
+
+    /**
+     * Bytes per second Nexus 2 delivers over as many parallel connections as there are download workers, one Range
+     * request each for the start of the largest planned files. The bytes all of them read are divided by the time from
+     * the first byte to the last, so per-request latency is left to the request part of the estimate. 0 when there
+     * is nothing to time or every request fails.
+     */
+    private double probeBandwidth(MigrationPlan plan) throws InterruptedException {
+        List<MigrationPlan.Entry> largest;
+        synchronized (plan.entries()) {
+            largest = plan.entries().stream()
+                    .filter(entry -> entry.size() > 0)
+                    .sorted(Comparator.comparingLong(MigrationPlan.Entry::size).reversed())
+                    .limit(DOWNLOAD_THREADS)
+                    .toList();
+        }
+        if (largest.isEmpty() || PLAN_PROBE_BYTES <= 0) {
+            return 0;
+        }
+        List<Callable<long[]>> probes = new ArrayList<>();
+        for (MigrationPlan.Entry entry : largest) {
+            probes.add(() -> probeRange(entry));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(probes.size());
+        long read = 0;
+        long firstByte = Long.MAX_VALUE;
+        long lastByte = Long.MIN_VALUE;
+        try {
+            for (Future<long[]> probe : pool.invokeAll(probes)) {
+                long[] timed = probe.get();
+                if (timed != null) {
+                    read += timed[0];
+                    firstByte = Math.min(firstByte, timed[1]);
+                    lastByte = Math.max(lastByte, timed[2]);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause()); // probeRange reports its own failures
+        } finally {
+            pool.shutdownNow();
+        }
+        if (read == 0) {
+            return 0;
+        }
+        System.out.println("Timed " + read + " bytes over " + probes.size() + (probes.size() == 1 ? " connection" : " connections") + " for bandwidth");
+        return read * 1_000_000_000.0 / Math.max(1, lastByte - firstByte);
+    }
+
+    // {bytes read, nanoTime of the first byte, nanoTime of the last} for the start of the file, null if it fails
+    private long[] probeRange(MigrationPlan.Entry entry) throws InterruptedException {
+        long limit = Math.min(entry.size(), PLAN_PROBE_BYTES);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(repoPath() + entry.relativePath()))
+                .header("Range", "bytes=0-" + (limit - 1))
+                .GET()
+                .build();
+        try {
+            HttpResponse<InputStream> response = transport.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200 && response.statusCode() != 206) {
+                    throw new IOException("HTTP " + response.statusCode());
+                }
+                // a server that ignores Range sends the whole file; only the first limit bytes are read
+                byte[] buffer = new byte[64 * 1024];
+                long read = 0;
+                long start = System.nanoTime();
+                int n;
+                while (read < limit && (n = body.read(buffer, 0, (int) Math.min(buffer.length, limit - read))) != -1) {
+                    read += n;
+                }
+                return new long[]{read, start, System.nanoTime()};
+            }
+        } catch (IOException e) {
+            System.err.println("Could not measure bandwidth on " + entry.relativePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void limitNexus3() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(
+                Integer.getInteger("sync.adaptive.initial", 8),
+                Integer.getInteger("sync.adaptive.min", 1),
+                Integer.getInteger("sync.adaptive.max", 256),
+                Integer.getInteger("sync.retry.attempts", 5),
+                Long.getLong("sync.retry.baseMillis", 500));
+        // the repository and the REST API are normally the same server, but need not be
+        this.transport.limitServer(URI.create(this.nexus3RepositoryBase), limiter);
+        this.transport.limitServer(URI.create(this.nexus3RestApiBase), limiter);
+        metrics.gauge("nexus3.limit", limiter::limit);
+        metrics.gauge("nexus3.inFlight", limiter::inFlight);
+        metrics.gauge("nexus3.throttled", limiter::throttledCount);
+    }
+
+    /**
+     * The journal, the crawl snapshot and a plan each keep paths that are already in Nexus 3 away from the sync, so
+     * the index would never see their spellings. The inventory lists those paths in one request, so it is loaded
+     * whenever the policy is on and one of the three is used.
+     */
+    private boolean caseIndexNeedsInventory() {
+        return this.caseCollisionPolicy != CaseCollisionIndex.Policy.OFF
+                && (SNAPSHOT_FILE != null || JOURNAL_FILE != null || PLAN_EXECUTE != null);
+    }
+
+    private void indexCaseCollisions() {
+        if (this.caseCollisionPolicy == CaseCollisionIndex.Policy.OFF) {
+            return;
+        }
+        this.caseIndex = new CaseCollisionIndex();
+        if (this.inventory != null) {
+            this.inventory.forEachPath(this.caseIndex::add);
+        }
+    }
+
+    /**
+     * True when the path differs only in letter case from one in Nexus 3 or crawled before, and the policy leaves it
+     * out; it is then accounted for here, without any network call. Under the rename policy the path stays in and
+     * is uploaded under its renamed path.
+     */
+    boolean skipCaseCollision(String relativePath) {
+        String existing = this.caseIndex == null ? null : this.caseIndex.collision(this.urlStripper.apply(relativePath));
+        if (existing == null) {
+            return false;
+        }
+        metrics.caseCollisions.increment();
+        switch (this.caseCollisionPolicy) {
+            case RENAME -> {
+                String renamed = this.caseIndex.rename(relativePath, existing);
+                this.renamedPaths.put(relativePath, renamed);
+                System.out.println("Case collision of " + relativePath + " with " + existing + ", uploading it as " + renamed);
+                return false;
+            }
+            case REPORT -> {
+                System.err.println("Case collision of " + relativePath + " with " + existing + ", not transferring it");
+                reportedCollisions.add(relativePath + " (collides with " + existing + ")");
+                journal(relativePath, SyncJournal.Outcome.FAILED, -1); // still to do once resolved
+                if (this.snapshot != null) {
+                    this.snapshot.invalidate(repoPath() + relativePath);
+                }
+                return true;
+            }
+            default -> {
+                System.out.println("Case collision of " + relativePath + " with " + existing + ", skipping");
+                journal(relativePath, SyncJournal.Outcome.SKIPPED, -1);
+                this.unsettledPaths.remove(relativePath);
+                return true;
+            }
+        }
+    }
+
+    // Where a Nexus 2 path goes in Nexus 3: the same path unless a case collision was renamed
+    private String nexus3Path(String relativePath) {
+        return this.renamedPaths.getOrDefault(relativePath, relativePath);
+    }
+
+    private void loadInventory() throws IOException, InterruptedException {
+        String assetsUrl = Nexus3Inventory.assetsUrlFor(this.nexus3RestApiBase, this.nexus3RepositoryName);
+        System.out.println("Indexing Nexus 3 assets from " + assetsUrl);
+        this.inventory = new Nexus3Inventory(assetsUrl, this.nexus3Auth, this.transport);
+        this.inventory.load();
     }
 
     // Check if a file exists in Nexus 3 using REST API
-    private boolean existsInNexus3(String relativePath) throws IOException, InterruptedException {
+    boolean existsInNexus3(String nexus2Path) throws IOException, InterruptedException {
+        String relativePath = nexus3Path(nexus2Path);
+        if (this.inventory != null) {
+            return this.inventory.contains(this.urlStripper.apply(relativePath));
+        }
+        String[] idAndVersion = this.nugetVersions == null ? null : nugetIdAndVersion(relativePath);
+        if (idAndVersion != null) {
+            try {
+                return this.nugetVersions.contains(idAndVersion[0], idAndVersion[1]);
+            } catch (IOException e) {
+                System.err.println("Falling back to a per-version check of " + relativePath + ": " + e.getMessage());
+            }
+        }
+
         // Simplified: check existence by querying components with groupId, artifactId, version, filename?
         // Nexus 3 REST API search by component uses GAV coordinates, but here we have just the path.
         // Let's do a HEAD request to the raw URL in Nexus 3 to check existence (simpler).
@@ -156,54 +745,410 @@ public class Nexus2To3Sync {
                 .uri(URI.create(url))
                 // HEAD requests might not work... maybe HEAD doesn't work properly if the cert is invalid
                 .method("GET", HttpRequest.BodyPublishers.noBody())
-                .header("Authorization", basicAuth(NEXUS3_USERNAME, NEXUS3_PASSWORD))
+                .header("Authorization", this.nexus3Auth)
                 .build();
 
-        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        HttpResponse<Void> response = transport.send(request, HttpResponse.BodyHandlers.discarding());
 
         return response.statusCode() == 200;
     }
 
+    // Nexus 2 keeps NuGet packages as {id}/{version}/{file}.nupkg; null for anything laid out differently.
+    // Relative paths start with "/" when the repository name was given without a trailing one
+    private static String[] nugetIdAndVersion(String relativePath) {
+        String[] segments = trimSlashes(relativePath).split("/");
+        return segments.length == 3 ? new String[]{segments[0], segments[1]} : null;
+    }
+
+    /**
+     * Existence check that, with checksum verification on, also compares the Nexus 2 .sha1 sidecar with the
+     * SHA-1 in the Nexus 3 inventory. A path whose content differs is reported and treated as missing so it gets
+     * uploaded again. The sidecar is the only request: it is fetched for paths Nexus 3 has a SHA-1 for, and for a
+     * missing path only once it is downloaded.
+     */
+    boolean isUpToDateInNexus3(String relativePath) throws IOException, InterruptedException {
+        if (!this.verifyChecksums) {
+            return existsInNexus3(relativePath);
+        }
+
+        String nexus3Path = nexus3Path(relativePath);
+        if (!this.inventory.contains(nexus3Path)) {
+            return false;
+        }
+        String nexus3Sha1 = this.inventory.sha1(nexus3Path);
+        if (nexus3Sha1 == null) {
+            return true; // nothing to compare against
+        }
+        String nexus2Sha1 = fetchSha1(repoPath() + relativePath + ".sha1", null);
+        if (nexus2Sha1 == null || nexus2Sha1.equals(nexus3Sha1)) {
+            return true;
+        }
+        System.err.println("Checksum mismatch for " + relativePath + ": Nexus 2 has " + nexus2Sha1 + ", Nexus 3 has " + nexus3Sha1 + ", re-uploading");
+        metrics.checksumMismatches.increment();
+        this.nexus2Sha1s.put(relativePath, nexus2Sha1);
+        return false;
+    }
+
+    // Reads a .sha1 sidecar, null if there is none; these hold the hash, sometimes followed by the file name
+    private String fetchSha1(String url, String authHeader) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create(url)).GET();
+        if (authHeader != null) {
+            request.header("Authorization", authHeader);
+        }
+        HttpResponse<String> response = transport.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            return null;
+        }
+        String[] tokens = response.body().trim().split("\\s+");
+        return tokens[0].length() == 40 ? tokens[0].toLowerCase(Locale.ROOT) : null;
+    }
+
     // Download a file from Nexus 2 to local temp folder
-    private Path downloadFromNexus2(String relativePath) throws IOException, InterruptedException {
+    Path downloadFromNexus2(String relativePath) throws IOException, InterruptedException {
+        Path spooled = takeSpooled(relativePath);
+        if (spooled != null) {
+            return spooled;
+        }
         String url = this.nexus2RepositoryBase + this.nexus2RepositoryName + relativePath;
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(url))
                 .GET()
                 .build();
-        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        HttpResponse<InputStream> response = transport.send(request, HttpResponse.BodyHandlers.ofInputStream());
 
         int code = response.statusCode();
         if (code < 200 || code >= 300) {
             throw new IOException("failed to download, response code: " + code);
         }
 
-        Path tempFile = Files.createTempFile("nexus2-", "-" + Paths.get(relativePath).getFileName());
-        Files.copy(response.body(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+        OptionalLong length = response.headers().firstValueAsLong("Content-Length");
+        if (isRangedDownload(response, length)) {
+            return rangedDownload(response, length.getAsLong(), relativePath);
+        }
+        try (InputStream body = response.body()) {
+            return spool(body, relativePath);
+        }
+    }
+
+    // The copy an earlier attempt left in the spool cache, null if there is none or it no longer matches Nexus 2
+    private Path takeSpooled(String relativePath) throws IOException {
+        if (this.spoolCache == null) {
+            return null;
+        }
+        Path spooled = this.spoolCache.take(relativePath, this.nexus2Sha1s.get(relativePath));
+        if (spooled != null) {
+            this.nexus2Sha1s.remove(relativePath);
+            System.out.println("Using the spooled copy of " + relativePath + ", not downloading it again");
+        }
+        return spooled;
+    }
+
+    // After an upload attempt the file is deleted, unless the upload failed and the spool cache keeps it for a retry
+    void releaseDownload(Path file, String relativePath) throws IOException {
+        if (this.spoolCache != null && this.failedPaths.contains(relativePath)) {
+            this.spoolCache.put(relativePath, file);
+        } else {
+            Files.delete(file);
+        }
+    }
+
+    private Path newTempFile(String relativePath) throws IOException {
+        return this.spoolCache != null
+                ? this.spoolCache.newFile(relativePath)
+                : Files.createTempFile("nexus2-", "-" + Paths.get(relativePath).getFileName());
+    }
+
+    boolean hasSpoolCache() {
+        return this.spoolCache != null;
+    }
+
+    // Failed uploads waiting in the spool cache, from this run or an earlier one
+    List<String> spooledRetries() {
+        return this.spoolCache == null ? List.of() : this.spoolCache.pending();
+    }
+
+    // Uploads a path again from its spooled copy; its failure in this run is taken back first and recorded anew if it fails again
+    void retryFromSpool(String relativePath) throws IOException {
+        if (isJournaledAsDone(relativePath) || !inOwnedShard(relativePath)) {
+            return;
+        }
+        Path file = this.spoolCache.take(relativePath, null);
+        if (file == null) {
+            return; // evicted meanwhile
+        }
+        if (this.failedPaths.remove(relativePath)) {
+            failedUploads.remove(relativePath);
+            metrics.failedUploads.decrement();
+        }
+        System.out.println("Retrying the upload of " + relativePath + " from the spool cache");
+        try {
+            uploadToNexus3(file, relativePath);
+        } finally {
+            releaseDownload(file, relativePath);
+        }
+    }
+
+    private static boolean isRangedDownload(HttpResponse<?> response, OptionalLong length) {
+        return RANGED_THRESHOLD > 0 && length.isPresent() && length.getAsLong() >= RANGED_THRESHOLD
+                && RangedDownloader.supportsRanges(response);
+    }
+
+    // Large artifacts: the open response becomes the first of several concurrent Range requests into one temp file
+    private Path rangedDownload(HttpResponse<InputStream> response, long size, String relativePath) throws IOException, InterruptedException {
+        Path tempFile = newTempFile(relativePath);
+        try {
+            new RangedDownloader(this.transport, SEGMENT_BYTES, SEGMENT_CONNECTIONS, Integer.getInteger("sync.retry.attempts", 5))
+                    .download(response, size, tempFile);
+            if (this.verifyChecksums) {
+                // segments arrive out of order, so the checksum takes a second pass over the finished file
+                try (ChecksumInputStream checked = new ChecksumInputStream(Files.newInputStream(tempFile), SHA256)) {
+                    checked.transferTo(OutputStream.nullOutputStream());
+                    verifyDownload(relativePath, checked);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        System.out.println("Downloaded " + relativePath + " to " + tempFile);
+        return tempFile;
+    }
+
+    private Path spool(InputStream body, String relativePath) throws IOException, InterruptedException {
+        Path tempFile = newTempFile(relativePath);
+        try {
+            if (this.verifyChecksums) {
+                ChecksumInputStream checked = new ChecksumInputStream(body, SHA256);
+                metrics.bytesDownloaded.add(Files.copy(checked, tempFile, StandardCopyOption.REPLACE_EXISTING));
+                verifyDownload(relativePath, checked);
+            } else {
+                metrics.bytesDownloaded.add(Files.copy(body, tempFile, StandardCopyOption.REPLACE_EXISTING));
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
         System.out.println("Downloaded " + relativePath + " to " + tempFile);
         return tempFile;
     }
 
+    // Compares the checksum computed while streaming with the Nexus 2 sidecar, and keeps it for the journal
+    private void verifyDownload(String relativePath, ChecksumInputStream checked) throws IOException, InterruptedException {
+        String sha1 = checked.sha1Hex();
+        String sha256 = checked.sha256Hex();
+        this.downloadedChecksums.put(relativePath, sha256 == null ? sha1 : sha1 + " " + sha256);
+
+        String expected = this.nexus2Sha1s.remove(relativePath);
+        if (expected == null) {
+            expected = fetchSha1(repoPath() + relativePath + ".sha1", null);
+        }
+        if (expected != null && !expected.equals(sha1)) {
+            metrics.checksumMismatches.increment();
+            throw new IOException("checksum mismatch for " + relativePath + ": Nexus 2 sidecar says " + expected + ", transferred bytes hash to " + sha1);
+        }
+    }
+
+    // Pipe the Nexus 2 response body straight into the Nexus 3 upload, no temp file involved.
+    // The HttpClient only pulls from the download as fast as the upload drains it, which gives us backpressure.
+    // Falls back to a temp file when the length is unknown, and re-downloads to disk if the streamed upload fails.
+    void transferToNexus3(String relativePath) throws IOException, InterruptedException {
+        if (leaseLost(relativePath)) {
+            return;
+        }
+        Path spooled = takeSpooled(relativePath);
+        if (spooled != null) {
+            try {
+                uploadToNexus3(spooled, relativePath);
+            } finally {
+                releaseDownload(spooled, relativePath);
+            }
+            return;
+        }
+        String url = this.nexus2RepositoryBase + this.nexus2RepositoryName + relativePath;
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = transport.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+        boolean success;
+        long size;
+        try (InputStream body = response.body()) {
+            int code = response.statusCode();
+            if (code < 200 || code >= 300) {
+                throw new IOException("failed to download, response code: " + code);
+            }
+
+            OptionalLong length = response.headers().firstValueAsLong("Content-Length");
+            if (length.isEmpty()) {
+                System.out.println("No content length for " + relativePath + ", spooling to disk");
+                Path tempFile = spool(body, relativePath);
+                try {
+                    uploadToNexus3(tempFile, relativePath);
+                } finally {
+                    releaseDownload(tempFile, relativePath);
+                }
+                return;
+            }
+            size = length.getAsLong();
+            if (isRangedDownload(response, length)) {
+                Path tempFile = rangedDownload(response, size, relativePath);
+                try {
+                    uploadToNexus3(tempFile, relativePath);
+                } finally {
+                    releaseDownload(tempFile, relativePath);
+                }
+                return;
+            }
+            if (this.verifyChecksums) {
+                ChecksumInputStream checked = new ChecksumInputStream(body, SHA256);
+                success = this.uploader.upload(checked, size, nexus3Path(relativePath));
+                if (success) {
+                    // too late to stop the upload, but a bad transfer is reported as a failure and retried next run
+                    verifyDownload(relativePath, checked);
+                }
+            } else {
+                success = this.uploader.upload(body, size, nexus3Path(relativePath));
+            }
+        }
+
+        if (success) {
+            metrics.bytesDownloaded.add(size);
+            recordUploadResult(true, relativePath, size);
+        } else {
+            // a consumed stream cannot be replayed, so the retry goes through a spooled copy
+            System.out.println("Streamed upload of " + relativePath + " failed, retrying from a spooled copy");
+            Path tempFile = downloadFromNexus2(relativePath);
+            try {
+                uploadToNexus3(tempFile, relativePath);
+            } finally {
+                releaseDownload(tempFile, relativePath);
+            }
+        }
+    }
+
     // Upload the file to Nexus 3 using REST API
-    private void uploadToNexus3(Path file, String relativePath) {
+    void uploadToNexus3(Path file, String relativePath) throws IOException {
+        if (leaseLost(relativePath)) {
+            return;
+        }
+        long size = Files.size(file);
+        recordUploadResult(this.uploader.upload(file, nexus3Path(relativePath)), relativePath, size);
+    }
 
-         boolean success = this.uploader.upload(file, relativePath);
+    // One component request for all files of a GAV; if Nexus rejects it, the files are retried one by one
+    void uploadComponentToNexus3(List<Path> files, List<String> relativePaths) throws IOException {
+        if (leaseLost(relativePaths.get(0))) { // one GAV, so one shard
+            return;
+        }
+        // a renamed path has coordinates of its own, so it cannot share the component
+        boolean renamed = relativePaths.stream().anyMatch(this.renamedPaths::containsKey);
+        if (!renamed && ((NexusUploaderMaven) this.uploader).uploadComponent(files, relativePaths)) {
+            for (int i = 0; i < files.size(); i++) {
+                recordUploadResult(true, relativePaths.get(i), Files.size(files.get(i)));
+            }
+            return;
+        }
+        if (!renamed) {
+            System.out.println("Component upload of " + relativePaths + " failed, uploading the files one by one");
+        }
+        for (int i = 0; i < files.size(); i++) {
+            uploadToNexus3(files.get(i), relativePaths.get(i));
+        }
+    }
 
+    private void recordUploadResult(boolean success, String relativePath, long size) {
         if (success) {
             System.out.println("Uploaded " + relativePath + " successfully.");
-            numSuccessfulUploads++;
-        } else if (relativePath.contains("/Artifact-") || relativePath.contains("/Artifact")) {
-            System.out.println("Considering " + relativePath + " as 'hacked', even though we got a bad response.  This artifact has a history of a letter changing its case, which Nexus has problems with, but it's probably fine.");
-            numHackedUploads++;
+            metrics.successfulUploads.increment();
+            if (size > 0) {
+                metrics.bytesUploaded.add(size);
+            }
+            if (this.inventory != null) {
+                this.inventory.markPresent(this.urlStripper.apply(nexus3Path(relativePath)));
+            }
+            String[] idAndVersion = this.nugetVersions == null ? null : nugetIdAndVersion(relativePath);
+            if (idAndVersion != null) {
+                this.nugetVersions.markPresent(idAndVersion[0], idAndVersion[1]);
+            }
+            journal(relativePath, SyncJournal.Outcome.UPLOADED, size);
+            this.renamedPaths.remove(relativePath);
+            this.unsettledPaths.remove(relativePath);
         } else {
             System.err.println("Failed to upload " + relativePath);
-            failedUploads.add(relativePath);
-            numFailedUploads++;
+            recordFailure(relativePath); // a renamed path keeps its name for the retry
+        }
+    }
+
+    void recordSkip(String relativePath) {
+        if (this.spoolCache != null) {
+            this.spoolCache.discard(relativePath); // e.g. uploaded by someone else since it failed here
+        }
+        metrics.skips.increment();
+        journal(relativePath, SyncJournal.Outcome.SKIPPED, -1);
+        this.unsettledPaths.remove(relativePath);
+    }
+
+    void recordFailure(String relativePath) {
+        failedPaths.add(relativePath);
+        failedUploads.add(relativePath);
+        metrics.failedUploads.increment();
+        journal(relativePath, SyncJournal.Outcome.FAILED, -1);
+        if (this.snapshot != null) {
+            this.snapshot.invalidate(repoPath() + relativePath); // retry it on the next delta run
+        }
+    }
+
+    // A crawled path the snapshot counts as seen; it stays unsettled until it is uploaded or skipped
+    void offer(String relativePath) {
+        if (this.snapshot != null) {
+            this.unsettledPaths.add(relativePath);
         }
     }
-    // Helper: basic auth header
-    private static String basicAuth(String user, String pass) {
-        String cred = user + ":" + pass;
-        return "Basic " + Base64.getEncoder().encodeToString(cred.getBytes());
+
+    // Failures recorded by recordFailure() are invalidated right away; this catches every other way a path can drop
+    // out of the run, such as an unchecked exception that the pipeline only logs
+    private void invalidateUnsettled() {
+        if (!this.unsettledPaths.isEmpty()) {
+            System.out.println(this.unsettledPaths.size() + " crawled paths ended without an outcome, offering them again next run");
+        }
+        for (String relativePath : this.unsettledPaths) {
+            this.snapshot.invalidate(repoPath() + relativePath);
+        }
+    }
+
+    // Plan execution: the path is synced unless another shard owns it or the journal has it done
+    boolean acceptPlanned(MigrationPlan.Entry entry) {
+        if (!inOwnedShard(entry.relativePath()) || skipIfJournaled(entry.relativePath()) || skipCaseCollision(entry.relativePath())) {
+            return false;
+        }
+        System.out.println("Planned (" + entry.reason() + "), syncing " + entry.relativePath());
+        return true;
+    }
+
+    MigrationPlan plan() {
+        return this.plan;
+    }
+
+    // A path the journal already lists as uploaded or skipped is counted as a skip without any network call
+    boolean skipIfJournaled(String relativePath) {
+        if (!isJournaledAsDone(relativePath)) {
+            return false;
+        }
+        System.out.println("Already synced in a previous run, skipping " + relativePath);
+        metrics.skips.increment();
+        this.unsettledPaths.remove(relativePath);
+        return true;
+    }
+
+    private boolean isJournaledAsDone(String relativePath) {
+        return this.journal != null && this.journal.isDone(relativePath);
+    }
+
+    private void journal(String relativePath, SyncJournal.Outcome outcome, long size) {
+        String checksum = this.downloadedChecksums.remove(relativePath);
+        if (this.journal != null) {
+            this.journal.record(relativePath, outcome, size, checksum);
+        }
     }
 }
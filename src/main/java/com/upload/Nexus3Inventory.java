@@ -0,0 +1,119 @@
+package com.upload;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * In-memory index of every asset path (and its SHA-1) in a Nexus 3 repository, loaded once by paging through
+ * /service/rest/v1/assets the same way NexusFileComparator does. Existence checks are then answered locally.
+ */
+public class Nexus3Inventory {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String assetsUrl; // e.g. "https://nexus.company.com/service/rest/v1/assets?repository=Repository"
+    private final String authHeader;
+    private final HttpTransport transport;
+
+    // asset path without leading slash -> sha1, "" when Nexus did not report one
+    private volatile Map<String, String> assets = new ConcurrentHashMap<>();
+
+    public Nexus3Inventory(String assetsUrl, String authHeader, HttpTransport transport) {
+        this.assetsUrl = assetsUrl;
+        this.authHeader = authHeader;
+        this.transport = transport;
+    }
+
+    // The components endpoint passed on the command line is turned into the matching assets endpoint
+    public static String assetsUrlFor(String nexus3RestApiBase, String nexus3RepositoryName) {
+        String repository = nexus3RepositoryName.endsWith("/")
+                ? nexus3RepositoryName.substring(0, nexus3RepositoryName.length() - 1)
+                : nexus3RepositoryName;
+        return nexus3RestApiBase.replace("/components", "/assets") + repository;
+    }
+
+    public void load() throws IOException, InterruptedException {
+        Map<String, String> loaded = new ConcurrentHashMap<>();
+        String continuationToken = null;
+        int pages = 0;
+
+        do {
+            String url = assetsUrl + (continuationToken != null
+                    ? "&continuationToken=" + URLEncoder.encode(continuationToken, StandardCharsets.UTF_8)
+                    : "");
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(url))
+                    .header("Authorization", authHeader)
+                    .header("Accept", "application/json")
+                    .GET()
+                    .build();
+            HttpResponse<InputStream> response = transport.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            JsonNode root;
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw new IOException("Failed to list Nexus 3 assets: HTTP " + response.statusCode());
+                }
+                root = MAPPER.readTree(body);
+            }
+
+            for (JsonNode asset : root.get("items")) {
+                JsonNode sha1 = asset.path("checksum").path("sha1");
+                loaded.put(normalize(asset.get("path").asText()), sha1.isTextual() ? sha1.asText() : "");
+            }
+
+            continuationToken = root.has("continuationToken") && !root.get("continuationToken").isNull()
+                    ? root.get("continuationToken").asText()
+                    : null;
+            if (++pages % 100 == 0) {
+                System.out.println("Indexed " + loaded.size() + " Nexus 3 assets...");
+            }
+        } while (continuationToken != null);
+
+        this.assets = loaded;
+        System.out.println("Indexed " + loaded.size() + " Nexus 3 assets in " + pages + " pages");
+    }
+
+    // Re-read the whole listing, e.g. between scheduled runs; lookups keep using the old index until it is done
+    public void refresh() throws IOException, InterruptedException {
+        load();
+    }
+
+    public boolean contains(String path) {
+        return assets.containsKey(normalize(path));
+    }
+
+    // SHA-1 reported by Nexus 3, null if the asset is unknown or has no checksum
+    public String sha1(String path) {
+        String sha1 = assets.get(normalize(path));
+        return sha1 == null || sha1.isEmpty() ? null : sha1;
+    }
+
+    // Keep the index current with what this run has uploaded itself
+    public void markPresent(String path) {
+        assets.putIfAbsent(normalize(path), "");
+    }
+
+    // Every asset path, without leading slash
+    public void forEachPath(Consumer<String> action) {
+        assets.keySet().forEach(action);
+    }
+
+    public int size() {
+        return assets.size();
+    }
+
+    private static String normalize(String path) {
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+}
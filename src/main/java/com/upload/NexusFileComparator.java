@@ -4,96 +4,237 @@ import com.fasterxml.jackson.databind.*;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Base64;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+    /**
+     * Diffs a local repository folder against a Nexus 3 repository by full relative path (and optionally size and SHA-1).
+     * The local tree is walked in parallel on a fork-join pool while Nexus 3 is paged on another thread; both sides
+     * are then sorted once and merge-walked, so no intersection or difference sets are ever built.
+     */
     public class NexusFileComparator {
 
         private static final String localPath = "C:\\storage\\repository";
         private static final String nexusRepoUrl = "https://nexus.company.com/service/rest/v1/assets?repository=";
         private static final String nexusUsername = "username"; // or null if anonymous
         private static final String nexusPassword = "password"; // or null if anonymous
+        private static final boolean compareSizes = true;   // needs a Nexus version that reports fileSize
+        private static final boolean compareHashes = false; // reads every local file that is in both, so much slower
 
-        public static void main(String[] args) throws Exception {
-            Set<String> localFiles = listLocalFiles(Paths.get(localPath));
-            Set<String> nexusFiles = listNexusFiles();
-
-            Set<String> inBoth = new HashSet<>(localFiles);
-            inBoth.retainAll(nexusFiles);
+        /** One file on either side; size is -1 and sha1 null when unknown. */
+        record FileEntry(String path, long size, String sha1) {
+        }
 
-            Set<String> onlyInLocal = new HashSet<>(localFiles);
-            onlyInLocal.removeAll(nexusFiles);
+        private static final Comparator<FileEntry> BY_PATH = Comparator.comparing(FileEntry::path);
 
-            Set<String> onlyInNexus = new HashSet<>(nexusFiles);
-            onlyInNexus.removeAll(localFiles);
+        // args (optional): local repository folder, Nexus 3 assets url
+        public static void main(String[] args) throws Exception {
+            Path root = Paths.get(args.length > 0 ? args[0] : localPath);
+            String repoUrl = args.length > 1 ? args[1] : nexusRepoUrl;
+
+            CompletableFuture<FileEntry[]> nexusListing = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return listNexusFiles(repoUrl);
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException("Failed to list Nexus files", e);
+                }
+            }, runnable -> {
+                Thread thread = new Thread(runnable, "nexus-listing");
+                thread.setDaemon(true);
+                thread.start();
+            });
+            FileEntry[] localFiles = listLocalFiles(root);
+            FileEntry[] nexusFiles = nexusListing.join();
+
+            Arrays.parallelSort(localFiles, BY_PATH);
+            Arrays.parallelSort(nexusFiles, BY_PATH);
+
+            long[] counts = new long[4]; // in both, only local, only nexus, content differs
+            List<FileEntry[]> differing = new ArrayList<>();
+            merge(localFiles, nexusFiles, local -> counts[1]++, nexus -> counts[2]++, (local, nexus) -> {
+                counts[0]++;
+                if (compareSizes && local.size() >= 0 && nexus.size() >= 0 && local.size() != nexus.size()) {
+                    differing.add(new FileEntry[]{local, nexus});
+                } else if (compareHashes && nexus.sha1() != null) {
+                    differing.add(new FileEntry[]{local, nexus}); // candidates, hashed below
+                }
+            });
+            List<FileEntry[]> contentDiffers = compareHashes ? hashMismatches(root, differing) : differing;
+            counts[3] = contentDiffers.size();
 
             System.out.println("=== Summary ===");
-            System.out.println("Local file count: " + localFiles.size());
-            System.out.println("Nexus file count: " + nexusFiles.size());
-            System.out.println("In both: " + inBoth.size());
-            System.out.println("Only in local: " + onlyInLocal.size());
-            System.out.println("Only in Nexus: " + onlyInNexus.size());
+            System.out.println("Local file count: " + localFiles.length);
+            System.out.println("Nexus file count: " + nexusFiles.length);
+            System.out.println("In both: " + counts[0]);
+            System.out.println("Only in local: " + counts[1]);
+            System.out.println("Only in Nexus: " + counts[2]);
+            if (compareSizes || compareHashes) {
+                System.out.println("In both but different content: " + counts[3]);
+            }
 
             System.out.println("\n=== Only in Local ===");
-            onlyInLocal.forEach(System.out::println);
+            merge(localFiles, nexusFiles, local -> System.out.println(local.path()), nexus -> { }, (local, nexus) -> { });
 
             System.out.println("\n=== Only in Nexus ===");
-            onlyInNexus.forEach(System.out::println);
+            merge(localFiles, nexusFiles, local -> { }, nexus -> System.out.println(nexus.path()), (local, nexus) -> { });
+
+            if (compareSizes || compareHashes) {
+                System.out.println("\n=== Different content ===");
+                for (FileEntry[] pair : contentDiffers) {
+                    System.out.println(pair[0].path() + " (local " + pair[0].size() + " bytes, Nexus " + pair[1].size() + " bytes)");
+                }
+            }
+        }
+
+        interface PairConsumer {
+            void accept(FileEntry local, FileEntry nexus);
+        }
+
+        // Walks two path-sorted arrays side by side, like the merge step of a merge sort
+        static void merge(FileEntry[] local, FileEntry[] nexus, Consumer<FileEntry> onlyLocal, Consumer<FileEntry> onlyNexus, PairConsumer inBoth) {
+            int i = 0, j = 0;
+            while (i < local.length && j < nexus.length) {
+                int cmp = local[i].path().compareTo(nexus[j].path());
+                if (cmp < 0) {
+                    onlyLocal.accept(local[i++]);
+                } else if (cmp > 0) {
+                    onlyNexus.accept(nexus[j++]);
+                } else {
+                    inBoth.accept(local[i++], nexus[j++]);
+                }
+            }
+            while (i < local.length) {
+                onlyLocal.accept(local[i++]);
+            }
+            while (j < nexus.length) {
+                onlyNexus.accept(nexus[j++]);
+            }
+        }
+
+        // Size mismatches are kept as they are; hash candidates are hashed in parallel and kept when they differ
+        private static List<FileEntry[]> hashMismatches(Path root, List<FileEntry[]> candidates) {
+            return candidates.parallelStream()
+                    .filter(pair -> pair[1].sha1() == null
+                            || (pair[0].size() >= 0 && pair[1].size() >= 0 && pair[0].size() != pair[1].size())
+                            || !pair[1].sha1().equalsIgnoreCase(sha1(root.resolve(pair[0].path()))))
+                    .toList();
+        }
+
+        private static String sha1(Path file) {
+            try (InputStream in = Files.newInputStream(file)) {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                }
+                return HexFormat.of().formatHex(digest.digest());
+            } catch (Exception e) {
+                return "unreadable: " + e.getMessage();
+            }
+        }
+
+        private static FileEntry[] listLocalFiles(Path path) {
+            return ForkJoinPool.commonPool().invoke(new LocalWalk(path, path)).toArray(new FileEntry[0]);
         }
 
-        private static Set<String> listLocalFiles(Path path) throws IOException {
-            try (Stream<Path> files = Files.walk(path)) {
-                return files.filter(Files::isRegularFile)
-                        .map(p -> p.getFileName().toString())
-                        .collect(Collectors.toSet());
+        // Lists one folder and forks a sub-task per subfolder, so wide trees are read by all cores at once
+        private static class LocalWalk extends RecursiveTask<List<FileEntry>> {
+            private static final long serialVersionUID = 1L;
+
+            private final Path root;
+            private final Path dir;
+
+            LocalWalk(Path root, Path dir) {
+                this.root = root;
+                this.dir = dir;
+            }
+
+            @Override
+            protected List<FileEntry> compute() {
+                List<FileEntry> files = new ArrayList<>();
+                List<LocalWalk> subdirs = new ArrayList<>();
+                try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                    for (Path child : children) {
+                        // links are not followed, a link to a folder above would otherwise be walked forever
+                        BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isSymbolicLink()) {
+                            continue;
+                        }
+                        if (attributes.isDirectory()) {
+                            LocalWalk task = new LocalWalk(root, child);
+                            task.fork();
+                            subdirs.add(task);
+                        } else if (attributes.isRegularFile()) {
+                            String relative = root.relativize(child).toString().replace('\\', '/');
+                            files.add(new FileEntry(relative, attributes.size(), null));
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Could not read " + dir + ": " + e.getMessage());
+                }
+                for (LocalWalk task : subdirs) {
+                    files.addAll(task.join());
+                }
+                return files;
             }
         }
 
-        private static Set<String> listNexusFiles() throws IOException {
-            Set<String> fileNames = new HashSet<>();
+        private static FileEntry[] listNexusFiles(String repoUrl) throws IOException, InterruptedException {
+            List<FileEntry> files = new ArrayList<>();
+            ObjectMapper mapper = new ObjectMapper();
             String continuationToken = null;
 
             do {
-                String urlStr = nexusRepoUrl + (continuationToken != null ? "&continuationToken=" + continuationToken : "");
-                URL url = new URL(urlStr);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+                String urlStr = repoUrl + (continuationToken != null
+                        ? "&continuationToken=" + URLEncoder.encode(continuationToken, StandardCharsets.UTF_8)
+                        : "");
+                HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create(urlStr)).GET();
                 if (nexusUsername != null && nexusPassword != null) {
-                    String auth = Base64.getEncoder().encodeToString((nexusUsername + ":" + nexusPassword).getBytes());
-                    conn.setRequestProperty("Authorization", "Basic " + auth);
+                    request.header("Authorization", HttpTransport.basicAuth(nexusUsername, nexusPassword));
                 }
 
-                conn.setRequestMethod("GET");
-
-                if (conn.getResponseCode() != 200) {
-                    throw new IOException("Failed to connect to Nexus: HTTP " + conn.getResponseCode());
+                HttpResponse<InputStream> response = HttpTransport.shared().send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+                JsonNode root;
+                try (InputStream input = response.body()) {
+                    if (response.statusCode() != 200) {
+                        throw new IOException("Failed to connect to Nexus: HTTP " + response.statusCode());
+                    }
+                    root = mapper.readTree(input);
                 }
 
-                InputStream input = conn.getInputStream();
-                ObjectMapper mapper = new ObjectMapper();
-                //String abeDebug = new String(input.readAllBytes());
-                JsonNode root = mapper.readTree(input);
-
                 for (JsonNode asset : root.get("items")) {
                     String path = asset.get("path").asText();
-                    String fileName = path.substring(path.lastIndexOf('/') + 1);
-                    fileNames.add(fileName);
+                    JsonNode sha1 = asset.path("checksum").path("sha1");
+                    files.add(new FileEntry(path.startsWith("/") ? path.substring(1) : path,
+                            asset.path("fileSize").asLong(-1),
+                            sha1.isTextual() ? sha1.asText() : null));
                 }
 
                 continuationToken = root.has("continuationToken") && !root.get("continuationToken").isNull()
                         ? root.get("continuationToken").asText()
                         : null;
-
-                conn.disconnect();
             } while (continuationToken != null);
 
-            return fileNames;
+            return files.toArray(new FileEntry[0]);
         }
     }
@@ -1,33 +1,32 @@
 package com.upload;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.Base64;
+import java.util.List;
 
 @SuppressWarnings("SameParameterValue")
 public class NexusUploaderMaven implements Uploader {
 
 
     private final String repoUrl;
-    private final String username;
-    private final String password;
+    private final String authHeader;
+    private final HttpTransport transport;
     private final String boundary = "----WebKitFormBoundary" + System.currentTimeMillis();
 
 
     public NexusUploaderMaven(String repoUrl, String username, String password) {
+        this(repoUrl, username, password, HttpTransport.shared());
+    }
+
+    public NexusUploaderMaven(String repoUrl, String username, String password, HttpTransport transport) {
         this.repoUrl = repoUrl;
-        this.username = username;
-        this.password = password;
+        this.authHeader = HttpTransport.basicAuth(username, password);
+        this.transport = transport;
     }
 
     public static void main(String[] args) throws IOException, InterruptedException {
@@ -45,92 +44,138 @@ public class NexusUploaderMaven implements Uploader {
     }
 
     public boolean upload(Path file, String relativePath) {
-        String[] parts = relativePath.split("/");
-        if (parts.length < 4) {
-            throw new IllegalArgumentException("Invalid Maven path: " + relativePath);
-        }
+        return doUpload(relativePath, file.getFileName().toString(), () -> HttpRequest.BodyPublishers.ofFile(file), true);
+    }
 
-        String version = parts[parts.length - 2];
-        String artifactId = parts[parts.length - 3];
-        String groupId = String.join(".", Arrays.copyOf(parts, parts.length - 3));
-
-        String filename = parts[parts.length - 1];
-        String packaging = filename.substring(filename.lastIndexOf('.') + 1);
-
-        // Determine classifier if present
-        String baseName = artifactId + "-" + version;
-        String classifier = null;
-        if (filename.startsWith(baseName + "-")) {
-            String afterBase = filename.substring((baseName + "-").length());
-            int dotIdx = afterBase.lastIndexOf('.');
-            if (dotIdx > 0) {
-                classifier = afterBase.substring(0, dotIdx);
-            }
+    // Pass-through upload: the stream is read while the request is sent, so its length must be known up front
+    @Override
+    public boolean upload(InputStream content, long length, String relativePath) {
+        String filename = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        return doUpload(relativePath, filename, () -> HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> content), length), false);
+    }
+
+    /**
+     * Uploads every file of one groupId/artifactId/version as a single component, as maven2.asset1..N.
+     * All paths must share the same GAV folder and no two may have the same extension and classifier.
+     */
+    public boolean uploadComponent(List<Path> files, List<String> relativePaths) {
+        if (files.size() != relativePaths.size() || files.isEmpty()) {
+            throw new IllegalArgumentException("need one relative path per file");
         }
+        Coordinates gav = Coordinates.parse(relativePaths.get(0));
         try {
-            byte[] multipartBody = buildMultipartBody(file, groupId, artifactId, version, packaging, classifier);
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(repoUrl))
-                    .header("Authorization", "Basic " + encodeCredentials(username, password))
-                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
-                    .POST(HttpRequest.BodyPublishers.ofByteArray(multipartBody))
-                    .build();
-
-            HttpClient client = HttpClient.newHttpClient();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            int code = response.statusCode();
-            return code >= 200 && code < 300;
-
+            MultipartBody body = new MultipartBody(boundary);
+            body.field("maven2.groupId", gav.groupId());
+            body.field("maven2.artifactId", gav.artifactId());
+            body.field("maven2.version", gav.version());
+            for (int i = 0; i < files.size(); i++) {
+                Coordinates asset = Coordinates.parse(relativePaths.get(i));
+                if (!asset.sameGav(gav)) {
+                    throw new IllegalArgumentException(relativePaths.get(i) + " is not part of " + relativePaths.get(0));
+                }
+                addAsset(body, i + 1, files.get(i).getFileName().toString(), HttpRequest.BodyPublishers.ofFile(files.get(i)), asset);
+            }
+            return send(body, true);
         } catch (IOException | InterruptedException ex) {
-            System.out.println("Failed to upload");
+            System.out.println("Failed to upload component " + gav.groupId() + ":" + gav.artifactId() + ":" + gav.version());
             ex.printStackTrace();
             return false;
         }
     }
 
-    private byte[] buildMultipartBody(Path jar, String groupId, String artifactId, String version, String packaging, String classifer) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        var writer = new PrintWriter(new OutputStreamWriter(baos, StandardCharsets.UTF_8), true);
+    /** Maven coordinates of one asset, derived from its repository path (group/path/artifactId/version/file). */
+    record Coordinates(String groupId, String artifactId, String version, String extension, String classifier) {
 
-        // Form fields
-        writeFormField(writer, "maven2.groupId", groupId);
-        writeFormField(writer, "maven2.artifactId", artifactId);
-        writeFormField(writer, "maven2.version", version);
+        static Coordinates parse(String relativePath) {
+            String[] parts = relativePath.split("/");
+            if (parts.length < 4) {
+                throw new IllegalArgumentException("Invalid Maven path: " + relativePath);
+            }
 
-        // Binary file part - JAR
-        writeFileFieldHeader(writer, "maven2.asset1", jar.getFileName().toString(), "application/java-archive");
-        baos.write(Files.readAllBytes(jar));
-        writer.write("\r\n");
-        if (packaging != null) {
-            writeFormField(writer, "maven2.asset1.extension", packaging);
+            String version = parts[parts.length - 2];
+            String artifactId = parts[parts.length - 3];
+            String groupId = String.join(".", Arrays.copyOf(parts, parts.length - 3));
+
+            String filename = parts[parts.length - 1];
+            String packaging = filename.substring(filename.lastIndexOf('.') + 1);
+
+            // Determine classifier if present
+            String baseName = artifactId + "-" + version;
+            String classifier = null;
+            if (filename.startsWith(baseName + "-")) {
+                String afterBase = filename.substring((baseName + "-").length());
+                int dotIdx = afterBase.lastIndexOf('.');
+                if (dotIdx > 0) {
+                    classifier = afterBase.substring(0, dotIdx);
+                }
+            }
+            return new Coordinates(groupId, artifactId, version, packaging, classifier);
         }
-        if (classifer != null) {
-            writeFormField(writer, "maven2.asset1.classifier", classifer);
+
+        boolean sameGav(Coordinates other) {
+            return groupId.equals(other.groupId) && artifactId.equals(other.artifactId) && version.equals(other.version);
         }
 
-        // Finish boundary
-        writer.write("--" + boundary + "--\r\n");
-        writer.flush();
+        // Nexus rejects a component with two assets that share extension and classifier
+        String assetKey() {
+            return extension + ":" + classifier;
+        }
+    }
+
+    private interface ContentSupplier {
+        HttpRequest.BodyPublisher get() throws IOException;
+    }
 
-        return baos.toByteArray();
+    // retryable is false when the content is a one-shot stream that cannot be sent a second time
+    private boolean doUpload(String relativePath, String filename, ContentSupplier content, boolean retryable) {
+        Coordinates coordinates = Coordinates.parse(relativePath);
+        try {
+            MultipartBody multipartBody = buildMultipartBody(filename, content.get(), coordinates.groupId(), coordinates.artifactId(),
+                    coordinates.version(), coordinates.extension(), coordinates.classifier());
+            return send(multipartBody, retryable);
+        } catch (IOException | InterruptedException ex) {
+            System.out.println("Failed to upload");
+            ex.printStackTrace();
+            return false;
+        }
     }
 
-    private void writeFormField(PrintWriter writer, String name, String value) {
-        writer.write("--" + boundary + "\r\n");
-        writer.write("Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n");
-        writer.write(value + "\r\n");
+    private boolean send(MultipartBody multipartBody, boolean retryable) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(repoUrl))
+                .header("Authorization", authHeader)
+                .header("Content-Type", multipartBody.contentType())
+                .POST(multipartBody.build())
+                .build();
+
+        HttpResponse<String> response = transport.send(request, HttpResponse.BodyHandlers.ofString(), retryable);
+        int code = response.statusCode();
+        return code >= 200 && code < 300;
     }
 
-    private void writeFileFieldHeader(PrintWriter writer, String fieldName, String filename, String contentType) {
-        writer.write("--" + boundary + "\r\n");
-        writer.write("Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + filename + "\"\r\n");
-        writer.write("Content-Type: " + contentType + "\r\n\r\n");
-        writer.flush(); // important: flush header before writing binary bytes
+    // The jar is streamed from disk (or from Nexus 2) when the request is sent, it is never read into memory
+    MultipartBody buildMultipartBody(String filename, HttpRequest.BodyPublisher jar, String groupId, String artifactId, String version, String packaging, String classifer) {
+        MultipartBody body = new MultipartBody(boundary);
+
+        // Form fields
+        body.field("maven2.groupId", groupId);
+        body.field("maven2.artifactId", artifactId);
+        body.field("maven2.version", version);
+
+        // Binary file part - JAR
+        addAsset(body, 1, filename, jar, new Coordinates(groupId, artifactId, version, packaging, classifer));
+        return body;
     }
 
-    private String encodeCredentials(String username, String password) {
-        return Base64.getEncoder().encodeToString((username + ":" + password).getBytes());
+    private static void addAsset(MultipartBody body, int index, String filename, HttpRequest.BodyPublisher content, Coordinates asset) {
+        String field = "maven2.asset" + index;
+        body.part(field, filename, "application/java-archive", content);
+        if (asset.extension() != null) {
+            body.field(field + ".extension", asset.extension());
+        }
+        if (asset.classifier() != null) {
+            body.field(field + ".classifier", asset.classifier());
+        }
     }
 }
- 
\ No newline at end of file
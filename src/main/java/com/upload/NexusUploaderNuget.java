@@ -1,58 +1,92 @@
 package com.upload;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.Path;
-import java.util.Base64;
 
 public class NexusUploaderNuget implements Uploader {
 
     // Default values for quick standalone testing
     private final String restApiEndpoint; // e.g. "https://nexus.company.com/service/rest/v1/components?repository=";
+    private final String username;
+    private final String password;
     private static final String DEFAULT_USERNAME = "username";
     private static final String DEFAULT_PASSWORD = "password";
 
     public NexusUploaderNuget(String restApiEndpoint) {
+        this(restApiEndpoint, DEFAULT_USERNAME, DEFAULT_PASSWORD);
+    }
+
+    public NexusUploaderNuget(String restApiEndpoint, String username, String password) {
         this.restApiEndpoint = restApiEndpoint;
+        this.username = username;
+        this.password = password;
     }
 
     public static void main(String[] args) throws IOException {
         String restApiEndpoint = "https://nexus.company.com/service/rest/v1/components?repository=";
         Path nugetPath = Path.of("C:\\Users\\USER\\Downloads\\artifactID-version.package");
-        new NexusUploaderNuget(restApiEndpoint).upload(nugetPath, "This/does/not/matter/for/nuget");
+        new NexusUploaderNuget(restApiEndpoint).upload(nugetPath, "artifactID/version/artifactID-version.nupkg");
     }
 
+    // The package goes up under its Nexus 2 file name, not the temp file's; Nexus reads id and version from the nuspec
     public boolean upload(Path path, String relativePath) {
-        return uploadNuGet(path.toFile(), restApiEndpoint, DEFAULT_USERNAME, DEFAULT_PASSWORD);
+        try {
+            return uploadNuGet(fileName(relativePath), HttpRequest.BodyPublishers.ofFile(path), true, restApiEndpoint, username, password);
+        } catch (FileNotFoundException ex) {
+            System.out.println("Failed to upload NuGet package to Nexus");
+            ex.printStackTrace();
+            return false;
+        }
+    }
+
+    // Pass-through upload: the package is read from the stream while the request is sent
+    @Override
+    public boolean upload(InputStream content, long length, String relativePath) {
+        HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> content), length);
+        return uploadNuGet(fileName(relativePath), publisher, false, restApiEndpoint, username, password);
+    }
+
+    private static String fileName(String relativePath) {
+        return relativePath.substring(relativePath.lastIndexOf('/') + 1);
     }
 
     public static boolean uploadNuGet(File nugetFile, String nexusUrl, String username, String password) {
+        try {
+            return uploadNuGet(nugetFile.getName(), HttpRequest.BodyPublishers.ofFile(nugetFile.toPath()), true, nexusUrl, username, password);
+        } catch (FileNotFoundException ex) {
+            System.out.println("Failed to upload NuGet package to Nexus");
+            ex.printStackTrace();
+            return false;
+        }
+    }
+
+    // retryable is false when the content is a one-shot stream that cannot be sent a second time
+    private static boolean uploadNuGet(String fileName, HttpRequest.BodyPublisher content, boolean retryable, String nexusUrl, String username, String password) {
         String boundary = "===" + System.currentTimeMillis() + "===";
         try {
-            // Build the multipart body as bytes
-            byte[] requestBody = buildMultipartBody("nuget.asset", nugetFile, boundary);
+            // Build the multipart body, the package itself is streamed while sending
+            MultipartBody requestBody = buildMultipartBody("nuget.asset", fileName, content, boundary);
 
-            // Build authorization header
-            String authHeader = "Basic " +
-                    Base64.getEncoder().encodeToString((username + ":" + password).getBytes());
+            // Authorization header, encoded once per set of credentials
+            String authHeader = HttpTransport.basicAuth(username, password);
 
             // Create HttpRequest
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(nexusUrl))
                     .header("Authorization", authHeader)
-                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
-                    .POST(HttpRequest.BodyPublishers.ofByteArray(requestBody))
+                    .header("Content-Type", requestBody.contentType())
+                    .POST(requestBody.build())
                     .build();
 
-            // Send request
-            HttpClient client = HttpClient.newHttpClient();
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            // Send request over the shared, keep-alive client
+            HttpResponse<String> response = HttpTransport.shared().send(request, HttpResponse.BodyHandlers.ofString(), retryable);
 
             System.out.println("Response code: " + response.statusCode());
             System.out.println("Response body: " + response.body());
@@ -65,29 +99,8 @@ public class NexusUploaderNuget implements Uploader {
         }
     }
 
-    /** Helper to build the multipart/form-data body as a byte array */
-    private static byte[] buildMultipartBody(String fieldName, File file, String boundary) throws IOException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        String fileName = file.getName();
-
-        // File header
-        outputStream.write(("--" + boundary + "\r\n").getBytes());
-        outputStream.write(("Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + fileName + "\"\r\n").getBytes());
-        outputStream.write(("Content-Type: application/octet-stream\r\n\r\n").getBytes());
-
-        // File content
-        try (FileInputStream fileInputStream = new FileInputStream(file)) {
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = fileInputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
-        }
-        outputStream.write("\r\n".getBytes());
-
-        // End boundary
-        outputStream.write(("--" + boundary + "--\r\n").getBytes());
-
-        return outputStream.toByteArray();
+    /** Helper to build the multipart/form-data body without loading the package into memory */
+    static MultipartBody buildMultipartBody(String fieldName, String fileName, HttpRequest.BodyPublisher content, String boundary) {
+        return new MultipartBody(boundary).part(fieldName, fileName, "application/octet-stream", content);
     }
 }
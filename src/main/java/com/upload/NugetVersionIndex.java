@@ -0,0 +1,142 @@
+package com.upload;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Versions Nexus 3 holds per NuGet package id, read from the v3 flat container
+ * (GET repository/{repo}/v3/flatcontainer/{id}/index.json) the first time any version of that id is checked.
+ * Every later check of the same id is answered from memory, so a package with hundreds of versions costs one request.
+ * Versions are compared in NuGet's normalized form, the way the flat container reports them.
+ */
+public class NugetVersionIndex {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final String flatContainerUrl; // e.g. "https://nexus.company.com/repository/nuget-hosted/v3/flatcontainer/"
+    private final String authHeader;
+    private final HttpTransport transport;
+
+    // lower-cased id -> normalized versions; a pending lookup is shared by every thread checking that id
+    private final Map<String, CompletableFuture<Set<String>>> versions = new ConcurrentHashMap<>();
+
+    public NugetVersionIndex(String flatContainerUrl, String authHeader, HttpTransport transport) {
+        this.flatContainerUrl = flatContainerUrl;
+        this.authHeader = authHeader;
+        this.transport = transport;
+    }
+
+    /**
+     * Whether Nexus 3 has this version of the package. Throws when the flat container cannot be read for the id,
+     * e.g. because the repository does not serve NuGet v3, so the caller can fall back to a per-version check.
+     */
+    public boolean contains(String id, String version) throws IOException, InterruptedException {
+        String key = id.toLowerCase(Locale.ROOT);
+        CompletableFuture<Set<String>> lookup = new CompletableFuture<>();
+        CompletableFuture<Set<String>> existing = versions.putIfAbsent(key, lookup);
+        if (existing == null) {
+            try {
+                lookup.complete(fetch(key));
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                versions.remove(key, lookup); // let a later check try again
+                lookup.completeExceptionally(e);
+                throw e;
+            }
+            existing = lookup;
+        }
+        try {
+            return existing.get().contains(normalize(version));
+        } catch (ExecutionException e) {
+            throw new IOException("version index of " + id + " unavailable", e.getCause());
+        }
+    }
+
+    // Keep the index current with what this run has uploaded itself
+    public void markPresent(String id, String version) {
+        CompletableFuture<Set<String>> known = versions.get(id.toLowerCase(Locale.ROOT));
+        if (known != null && known.isDone() && !known.isCompletedExceptionally()) {
+            known.join().add(normalize(version));
+        }
+    }
+
+    private Set<String> fetch(String id) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(flatContainerUrl + URLEncoder.encode(id, StandardCharsets.UTF_8) + "/index.json"))
+                .header("Authorization", authHeader)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = transport.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        Set<String> found = ConcurrentHashMap.newKeySet();
+        try (InputStream body = response.body()) {
+            if (response.statusCode() == 404) {
+                return found; // no version of this id yet
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException("flat container lookup of " + id + " failed: HTTP " + response.statusCode());
+            }
+            // {"versions": ["1.0.0", "1.0.1-beta", ...]}
+            try (JsonParser parser = JSON.createParser(body)) {
+                while (parser.nextToken() != null) {
+                    if (parser.currentToken() == JsonToken.FIELD_NAME && parser.getCurrentName().equals("versions")
+                            && parser.nextToken() == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                            found.add(normalize(parser.getText()));
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * NuGet's normalized version: lower case, no build metadata, no leading zeros, at least three numeric parts and
+     * a fourth only when it is not zero. "01.2" and "1.2.0.0" both become "1.2.0".
+     */
+    static String normalize(String version) {
+        String lower = version.toLowerCase(Locale.ROOT);
+        int metadata = lower.indexOf('+');
+        if (metadata >= 0) {
+            lower = lower.substring(0, metadata);
+        }
+        int dash = lower.indexOf('-');
+        String release = dash < 0 ? lower : lower.substring(0, dash);
+        String[] parts = release.split("\\.");
+        if (parts.length > 4) {
+            return lower;
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (int i = 0; i < Math.max(3, parts.length); i++) {
+            String part = i < parts.length ? parts[i] : "0";
+            if (part.isEmpty() || !part.chars().allMatch(Character::isDigit)) {
+                return lower; // not a NuGet version, compare as written
+            }
+            String number = part.replaceFirst("^0+(?=.)", "");
+            if (i == 3 && number.equals("0")) {
+                break;
+            }
+            if (i > 0) {
+                normalized.append('.');
+            }
+            normalized.append(number);
+        }
+        return dash < 0 ? normalized.toString() : normalized + lower.substring(dash);
+    }
+}
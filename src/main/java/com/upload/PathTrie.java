@@ -0,0 +1,399 @@
+package com.upload;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Set of repository paths stored as a tree of path segments, so the repository URL and every group/artifact/version
+ * folder is kept once instead of once per file. Folder names are interned and held as UTF-8 bytes; a file is just the
+ * byte[] of its name in its folder's child array. Maven file names repeat their artifactId and version folders
+ * ("lib/1.0/lib-1.0.jar"), so that part is replaced by a one-byte marker. At a million URLs this takes about a
+ * sixth of the heap of the HashSet + HashSet + TreeSet of URLs it replaces (PathSetBenchmark.retained*).
+ *
+ * Iteration is sorted in String order (by UTF-8 bytes, which only differs for characters outside the BMP) and builds
+ * each path on the fly. Adds may come from several crawler threads; iterating while adding is not supported.
+ */
+public class PathTrie implements Iterable<String> {
+
+    private static final Object[] NO_CHILDREN = new Object[0];
+    private static final byte[] NO_NAME = new byte[0];
+    // first byte of a file name stored without its "<artifactId>-<version>" stem; never valid in a URL path
+    private static final byte STEM = 0;
+
+    private static final class Node {
+        final byte[] name; // folder name including its trailing '/'
+        Object[] children = NO_CHILDREN; // Node for a folder, byte[] for a file, sorted by (expanded) name
+        int childCount;
+        boolean present; // the folder itself was added, as "a/b/"
+
+        Node(byte[] name) {
+            this.name = name;
+        }
+    }
+
+    // state shared by a trie and the views made from it
+    private static final class Shared {
+        final Map<ByteBuffer, byte[]> folderNames = new HashMap<>();
+        int size;
+    }
+
+    private final Shared shared;
+    private final Node root;
+    private final byte[] rootParentName; // needed to expand stems of files just below a sub-folder view's root
+    private final String prefix;
+
+    // Paths given to add() must start with prefix; iteration puts it back in front of every path
+    public PathTrie(String prefix) {
+        this(new Shared(), new Node(NO_NAME), NO_NAME, prefix);
+    }
+
+    private PathTrie(Shared shared, Node root, byte[] rootParentName, String prefix) {
+        this.shared = shared;
+        this.root = root;
+        this.rootParentName = rootParentName;
+        this.prefix = prefix;
+    }
+
+    public String prefix() {
+        return prefix;
+    }
+
+    // False when the path was already there or does not start with the prefix
+    public boolean add(String path) {
+        if (!path.startsWith(prefix)) {
+            return false;
+        }
+        byte[] bytes = path.substring(prefix.length()).getBytes(StandardCharsets.UTF_8);
+        synchronized (shared) {
+            byte[] parentName = rootParentName;
+            Node folder = root;
+            int start = 0;
+            while (start < bytes.length) {
+                int slash = indexOf(bytes, (byte) '/', start);
+                if (slash < 0) {
+                    int at = find(folder, parentName, bytes, start, bytes.length);
+                    if (at >= 0) {
+                        return false;
+                    }
+                    insert(folder, -at - 1, encodeFileName(stem(parentName, folder.name), bytes, start));
+                    shared.size++;
+                    return true;
+                }
+                int at = find(folder, parentName, bytes, start, slash + 1);
+                Node child;
+                if (at >= 0) {
+                    child = (Node) folder.children[at];
+                } else {
+                    child = new Node(internFolderName(bytes, start, slash + 1));
+                    insert(folder, -at - 1, child);
+                }
+                parentName = folder.name;
+                folder = child;
+                start = slash + 1;
+            }
+            if (folder.present || folder == root) {
+                return false;
+            }
+            folder.present = true;
+            shared.size++;
+            return true;
+        }
+    }
+
+    public boolean contains(String path) {
+        if (!path.startsWith(prefix)) {
+            return false;
+        }
+        byte[] bytes = path.substring(prefix.length()).getBytes(StandardCharsets.UTF_8);
+        synchronized (shared) {
+            byte[] parentName = rootParentName;
+            Node folder = root;
+            int start = 0;
+            while (start < bytes.length) {
+                int slash = indexOf(bytes, (byte) '/', start);
+                if (slash < 0) {
+                    return find(folder, parentName, bytes, start, bytes.length) >= 0;
+                }
+                int at = find(folder, parentName, bytes, start, slash + 1);
+                if (at < 0) {
+                    return false;
+                }
+                parentName = folder.name;
+                folder = (Node) folder.children[at];
+                start = slash + 1;
+            }
+            return folder.present;
+        }
+    }
+
+    public int size() {
+        if (root.name.length == 0) {
+            synchronized (shared) {
+                return shared.size;
+            }
+        }
+        int count = 0;
+        for (Iterator<String> it = iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    // Drops the spare room left in child arrays by adding; call once the trie is complete
+    public void compact() {
+        synchronized (shared) {
+            Deque<Node> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Node folder = pending.pop();
+                if (folder.children.length != folder.childCount) {
+                    folder.children = folder.childCount == 0 ? NO_CHILDREN : Arrays.copyOf(folder.children, folder.childCount);
+                }
+                for (Object child : folder.children) {
+                    if (child instanceof Node node) {
+                        pending.push(node);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The same paths with base cut off their front instead of the prefix, without copying anything.
+     * base may be shorter than the prefix, or point at a folder inside the trie; paths outside base are left out.
+     */
+    public PathTrie relativeTo(String base) {
+        if (prefix.startsWith(base)) {
+            return new PathTrie(shared, root, rootParentName, prefix.substring(base.length()));
+        }
+        if (!base.startsWith(prefix) || !base.endsWith("/")) {
+            return new PathTrie(base);
+        }
+        byte[] bytes = base.substring(prefix.length()).getBytes(StandardCharsets.UTF_8);
+        synchronized (shared) {
+            byte[] parentName = rootParentName;
+            Node folder = root;
+            int start = 0;
+            while (start < bytes.length) {
+                int slash = indexOf(bytes, (byte) '/', start);
+                int at = find(folder, parentName, bytes, start, slash + 1);
+                if (at < 0) {
+                    return new PathTrie(base);
+                }
+                parentName = folder.name;
+                folder = (Node) folder.children[at];
+                start = slash + 1;
+            }
+            return new PathTrie(shared, folder, parentName, "");
+        }
+    }
+
+    public Stream<String> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new PathIterator();
+    }
+
+    /**
+     * Depth-first walk. The current path is kept as bytes and only turned into a String for each hit.
+     * The buffer starts with the names of the root's parent and the root itself (empty for a whole trie), which are
+     * not part of the output but are where stems are expanded from.
+     */
+    private final class PathIterator implements Iterator<String> {
+        private Node[] folders = new Node[16];
+        private int[] nextChild = new int[16];
+        private int[] ends = new int[16]; // path length after each open folder's name
+        private int depth;
+        private final int hidden;
+        private byte[] path = new byte[256];
+        private String next;
+
+        PathIterator() {
+            int length = append(0, rootParentName, 0, rootParentName.length);
+            ends[0] = length;
+            length = append(length, root.name, 0, root.name.length);
+            folders[1] = root;
+            ends[1] = length;
+            depth = 1;
+            hidden = length;
+            next = advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String current = next;
+            next = advance();
+            return current;
+        }
+
+        private String advance() {
+            while (depth > 0) {
+                Node folder = folders[depth];
+                if (nextChild[depth] == folder.childCount) {
+                    depth--;
+                    continue;
+                }
+                Object child = folder.children[nextChild[depth]++];
+                int start = ends[depth];
+                if (child instanceof Node node) {
+                    int length = append(start, node.name, 0, node.name.length);
+                    push(node, length);
+                    if (node.present) {
+                        return toPath(length);
+                    }
+                } else {
+                    byte[] name = (byte[]) child;
+                    if (name.length > 0 && name[0] == STEM) {
+                        // <parent folder>-<folder><rest>, both folder names are already in the buffer
+                        int parentStart = depth >= 2 ? ends[depth - 2] : 0;
+                        int folderStart = ends[depth - 1];
+                        int length = append(start, path, parentStart, folderStart - 1);
+                        length = append(length, new byte[]{'-'}, 0, 1);
+                        length = append(length, path, folderStart, start - 1);
+                        return toPath(append(length, name, 1, name.length));
+                    }
+                    return toPath(append(start, name, 0, name.length));
+                }
+            }
+            return null;
+        }
+
+        private void push(Node folder, int end) {
+            depth++;
+            if (depth == folders.length) {
+                folders = Arrays.copyOf(folders, depth * 2);
+                nextChild = Arrays.copyOf(nextChild, depth * 2);
+                ends = Arrays.copyOf(ends, depth * 2);
+            }
+            folders[depth] = folder;
+            nextChild[depth] = 0;
+            ends[depth] = end;
+        }
+
+        private int append(int at, byte[] source, int from, int to) {
+            int length = to - from;
+            if (at + length > path.length) {
+                byte[] grown = Arrays.copyOf(path, Math.max(path.length * 2, at + length));
+                if (source == path) {
+                    source = grown;
+                }
+                path = grown;
+            }
+            System.arraycopy(source, from, path, at, length);
+            return at + length;
+        }
+
+        private String toPath(int length) {
+            String relative = new String(path, hidden, length - hidden, StandardCharsets.UTF_8);
+            return prefix.isEmpty() ? relative : prefix + relative;
+        }
+    }
+
+    private byte[] internFolderName(byte[] bytes, int from, int to) {
+        byte[] name = Arrays.copyOfRange(bytes, from, to);
+        return shared.folderNames.computeIfAbsent(ByteBuffer.wrap(name), key -> name);
+    }
+
+    // "<artifactId>-<version>" for files in .../artifactId/version/, null at the top two levels
+    private static byte[] stem(byte[] parentName, byte[] folderName) {
+        if (parentName.length == 0 || folderName.length == 0) {
+            return null;
+        }
+        byte[] stem = new byte[parentName.length + folderName.length - 1];
+        System.arraycopy(parentName, 0, stem, 0, parentName.length - 1);
+        stem[parentName.length - 1] = '-';
+        System.arraycopy(folderName, 0, stem, parentName.length, folderName.length - 1);
+        return stem;
+    }
+
+    private static byte[] encodeFileName(byte[] stem, byte[] bytes, int from) {
+        if (stem != null && bytes.length - from > stem.length
+                && Arrays.equals(stem, 0, stem.length, bytes, from, from + stem.length)) {
+            byte[] coded = new byte[bytes.length - from - stem.length + 1];
+            coded[0] = STEM;
+            System.arraycopy(bytes, from + stem.length, coded, 1, coded.length - 1);
+            return coded;
+        }
+        return Arrays.copyOfRange(bytes, from, bytes.length);
+    }
+
+    // Binary search among the children, -(insertion point) - 1 when absent; parentName is needed to expand coded file names
+    private static int find(Node folder, byte[] parentName, byte[] bytes, int from, int to) {
+        byte[] stem = null;
+        int low = 0;
+        int high = folder.childCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Object child = folder.children[mid];
+            if (stem == null && child instanceof byte[] name && name.length > 0 && name[0] == STEM) {
+                stem = stem(parentName, folder.name);
+            }
+            int cmp = compare(child, stem, bytes, from, to);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static int compare(Object child, byte[] stem, byte[] bytes, int from, int to) {
+        if (child instanceof Node node) {
+            return Arrays.compareUnsigned(node.name, 0, node.name.length, bytes, from, to);
+        }
+        byte[] name = (byte[]) child;
+        if (name.length == 0 || name[0] != STEM) {
+            return Arrays.compareUnsigned(name, 0, name.length, bytes, from, to);
+        }
+        int stemEnd = Math.min(from + stem.length, to);
+        int cmp = Arrays.compareUnsigned(stem, 0, stemEnd - from, bytes, from, stemEnd);
+        if (cmp != 0 || stemEnd == to) {
+            return cmp != 0 ? cmp : 1; // the expanded name is longer than what it is compared with
+        }
+        return Arrays.compareUnsigned(name, 1, name.length, bytes, stemEnd, to);
+    }
+
+    private static void insert(Node folder, int at, Object child) {
+        if (folder.childCount == folder.children.length) {
+            folder.children = Arrays.copyOf(folder.children, Math.max(4, folder.childCount * 2));
+        }
+        System.arraycopy(folder.children, at, folder.children, at + 1, folder.childCount - at);
+        folder.children[at] = child;
+        folder.childCount++;
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
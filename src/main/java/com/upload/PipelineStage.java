@@ -0,0 +1,124 @@
+package com.upload;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * One step of the sync pipeline: a bounded queue drained by a fixed number of worker threads.
+ * submit() blocks while the queue is full, which is what keeps upstream stages (and memory) in check.
+ */
+class PipelineStage<T> {
+
+    interface Handler<T> {
+        void handle(T item) throws Exception;
+    }
+
+    private static final Object END = new Object();
+
+    // Nanoseconds the current worker has spent blocked in submit() to a downstream stage; null outside workers
+    private static final ThreadLocal<long[]> SUBMIT_WAIT = new ThreadLocal<>();
+
+    private final String name;
+    private final BlockingQueue<Object> queue;
+    private final Semaphore slots; // bounds a priority queue, which has no capacity of its own; null otherwise
+    private final Handler<T> handler;
+    private final List<Thread> workers = new ArrayList<>();
+    private final SyncMetrics.Stage metrics;
+
+    PipelineStage(String name, int workerCount, int capacity, Handler<T> handler) {
+        this(name, workerCount, capacity, null, handler);
+    }
+
+    // With a priority, workers take the queued item that sorts first instead of the oldest one
+    @SuppressWarnings("unchecked")
+    PipelineStage(String name, int workerCount, int capacity, Comparator<? super T> priority, Handler<T> handler) {
+        if (workerCount < 1 || capacity < 1) {
+            throw new IllegalArgumentException(name + ": worker count and capacity must be at least 1");
+        }
+        this.name = name;
+        if (priority == null) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.slots = null;
+        } else {
+            // END sorts after every item, so workers only stop once the queue is empty
+            this.queue = new PriorityBlockingQueue<>(Math.min(capacity, 1024), (a, b) ->
+                    a == END ? (b == END ? 0 : 1) : b == END ? -1 : priority.compare((T) a, (T) b));
+            this.slots = new Semaphore(capacity);
+        }
+        this.handler = handler;
+        this.metrics = SyncMetrics.shared().stage(name);
+        for (int i = 1; i <= workerCount; i++) {
+            Thread worker = new Thread(this::drain, "sync-" + name + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+    }
+
+    void start() {
+        metrics.setQueueDepth(this::depth);
+        workers.forEach(Thread::start);
+    }
+
+    void submit(T item) throws InterruptedException {
+        long start = System.nanoTime();
+        if (slots != null) {
+            slots.acquire();
+        }
+        queue.put(item);
+        long[] waited = SUBMIT_WAIT.get();
+        if (waited != null) {
+            waited[0] += System.nanoTime() - start;
+        }
+    }
+
+    int depth() {
+        return queue.size();
+    }
+
+    // No more items will be submitted: let the workers empty the queue and wait for them to finish
+    void finish() throws InterruptedException {
+        for (int i = 0; i < workers.size(); i++) {
+            queue.put(END);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        long[] waited = new long[1];
+        SUBMIT_WAIT.set(waited);
+        try {
+            while (true) {
+                Object item = queue.take();
+                if (item == END) {
+                    return;
+                }
+                if (slots != null) {
+                    slots.release();
+                }
+                waited[0] = 0;
+                long start = metrics.begin();
+                boolean success = false;
+                try {
+                    handler.handle((T) item);
+                    success = true;
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    System.err.println("Stage " + name + " failed on " + item + ": " + e);
+                } finally {
+                    metrics.end(start, success, waited[0]);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Downloads one large file as concurrent HTTP Range requests into a preallocated file, each segment written at its
+ * own offset through a shared FileChannel. A segment that fails mid-way is resumed from the last byte it wrote,
+ * so a dropped connection costs one segment's remainder instead of the whole file.
+ *
+ * The response that revealed the file's size is not thrown away: it is read as the first segment.
+ */
+class RangedDownloader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final HttpTransport transport;
+    private final long segmentBytes;
+    private final int connections;
+    private final int maxAttempts;
+
+    RangedDownloader(HttpTransport transport, long segmentBytes, int connections, int maxAttempts) {
+        if (segmentBytes < 1 || connections < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("segmentBytes, connections and maxAttempts must be at least 1");
+        }
+        this.transport = transport;
+        this.segmentBytes = segmentBytes;
+        this.connections = connections;
+        this.maxAttempts = maxAttempts;
+    }
+
+    static boolean supportsRanges(HttpResponse<?> response) {
+        return response.headers().firstValue("Accept-Ranges").map(value -> value.equalsIgnoreCase("bytes")).orElse(false);
+    }
+
+    /**
+     * Fetches size bytes of first's URL into target. first must be the 200 response to a plain GET of the file;
+     * its body is read as segment 0 and closed, every other segment is requested with If-Range so a file that changes
+     * on the server while it is being fetched fails the download instead of producing a mix of two versions.
+     */
+    void download(HttpResponse<InputStream> first, long size, Path target) throws IOException, InterruptedException {
+        String url = first.uri().toString(); // after any redirect
+        Optional<String> validator = first.headers().firstValue("ETag")
+                .filter(etag -> !etag.startsWith("W/")) // weak ETags are not allowed in If-Range
+                .or(() -> first.headers().firstValue("Last-Modified"));
+
+        List<Segment> segments = new ArrayList<>();
+        for (long start = 0; start < size; start += segmentBytes) {
+            segments.add(new Segment(start, Math.min(size, start + segmentBytes)));
+        }
+        System.out.println("Downloading " + url + " in " + segments.size() + " segments over " + connections + " connections");
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(connections, segments.size()), runnable -> {
+            Thread thread = new Thread(runnable, "ranged-download");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw")) {
+            file.setLength(size);
+            FileChannel channel = file.getChannel();
+            List<Future<?>> results = new ArrayList<>();
+            for (Segment segment : segments) {
+                InputStream initial = segment.start == 0 ? first.body() : null;
+                results.add(pool.submit(() -> {
+                    fetchSegment(url, validator, channel, segment, initial);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException("ranged download of " + url + " failed", cause);
+        } finally {
+            pool.shutdownNow();
+            first.body().close();
+        }
+    }
+
+    // [start, end) of the file; position is how far it has been written
+    private static class Segment {
+        final long start;
+        final long end;
+        long position;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+
+        @Override
+        public String toString() {
+            return "bytes " + start + "-" + (end - 1);
+        }
+    }
+
+    // Writes the segment at its offset, resuming from the last written byte after a failure
+    private void fetchSegment(String url, Optional<String> validator, FileChannel channel, Segment segment,
+                              InputStream initial) throws IOException, InterruptedException {
+        InputStream in = initial;
+        int attempt = 0;
+        while (segment.position < segment.end) {
+            try {
+                if (in == null) {
+                    in = openRange(url, validator, segment.position, segment.end);
+                }
+                copy(in, channel, segment);
+            } catch (IOException e) {
+                if (++attempt >= maxAttempts) {
+                    throw new IOException(segment + " of " + url + " failed after " + attempt + " attempts at byte " + segment.position, e);
+                }
+                System.out.println(segment + " of " + url + " failed at byte " + segment.position + ", resuming: " + e.getMessage());
+                // full-jitter backoff, as for Nexus 3 retries
+                long ceiling = Math.min(30_000, 500L << Math.min(attempt - 1, 16));
+                Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+            } finally {
+                if (in != null) {
+                    in.close(); // the first segment's stream covers the whole file, closing it stops the rest
+                    in = null;
+                }
+            }
+        }
+    }
+
+    private InputStream openRange(String url, Optional<String> validator, long from, long end) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Range", "bytes=" + from + "-" + (end - 1))
+                .GET();
+        validator.ifPresent(value -> request.header("If-Range", value));
+        HttpResponse<InputStream> response = transport.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        String contentRange = response.headers().firstValue("Content-Range").orElse("");
+        if (response.statusCode() != 206 || !contentRange.startsWith("bytes " + from + "-")) {
+            response.body().close();
+            // a 200 here means If-Range did not match: the file changed since the download started
+            throw new IOException("expected 206 for bytes " + from + "-" + (end - 1) + ", got " + response.statusCode()
+                    + (contentRange.isEmpty() ? "" : " with " + contentRange));
+        }
+        return response.body();
+    }
+
+    // Copies from in until the segment is complete, never past its end
+    private static void copy(InputStream in, FileChannel channel, Segment segment) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        SyncMetrics metrics = SyncMetrics.shared();
+        while (segment.position < segment.end) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, segment.end - segment.position));
+            if (n < 0) {
+                throw new IOException("connection closed " + (segment.end - segment.position) + " bytes early");
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+            while (chunk.hasRemaining()) {
+                segment.position += channel.write(chunk, segment.position);
+            }
+            metrics.bytesDownloaded.add(n);
+        }
+    }
+}
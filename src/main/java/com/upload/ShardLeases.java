@@ -0,0 +1,279 @@
+package com.upload;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Splits the relative-path space into shards and hands them out to sync processes through lease files in a shared
+ * directory (a local disk for several processes on one host, NFS or similar for several hosts).
+ *
+ *   shard-0007.lease   claimed, holds the owner's id; its modification time is the owner's heartbeat
+ *   shard-0007.done    finished in this pass; delete the directory to start a new pass
+ *
+ * A lease is created with CREATE_NEW, so only one process can claim a free shard. A lease whose heartbeat is older
+ * than leaseMillis belongs to a dead process: it is renamed away (only one rename can win) and claimed again. The
+ * renamed file must still hold the owner and heartbeat that were judged stale; if another process took the shard
+ * over in between, the rename caught its fresh lease, which is put back untouched.
+ * An owner that finds its lease gone, or has not renewed it within leaseMillis, stops touching the shard.
+ */
+public class ShardLeases implements AutoCloseable {
+
+    private final Path dir;
+    private final int shards;
+    private final long leaseMillis;
+    private final String owner;
+    private final Map<Integer, Long> renewedAt = new ConcurrentHashMap<>(); // owned shard -> last successful heartbeat
+    private final ScheduledExecutorService heartbeat;
+
+    public ShardLeases(Path dir, int shards, long leaseMillis) throws IOException {
+        if (shards < 1 || leaseMillis < 3) {
+            throw new IllegalArgumentException("shards must be at least 1 and leaseMillis at least 3");
+        }
+        this.dir = Files.createDirectories(dir);
+        this.shards = shards;
+        this.leaseMillis = leaseMillis;
+        this.owner = hostName() + "-" + ProcessHandle.current().pid() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-leases");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeat.scheduleAtFixedRate(this::renew, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+    }
+
+    public String owner() {
+        return owner;
+    }
+
+    /**
+     * Shard of a relative path: the folder above the version folder, so every file of a Maven artifact
+     * (groupId/artifactId) or of a NuGet package id lands in the same shard. Case is ignored, so spellings that collide
+     * in Nexus 3 meet in one process's CaseCollisionIndex.
+     */
+    public static int shardOf(String relativePath, int shards) {
+        int end = relativePath.lastIndexOf('/');
+        int above = end > 0 ? relativePath.lastIndexOf('/', end - 1) : -1;
+        if (above > 0) {
+            end = above; // drop the version folder too
+        }
+        CRC32 crc = new CRC32();
+        crc.update(relativePath.substring(0, Math.max(end, 0)).toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % shards);
+    }
+
+    public int shardOf(String relativePath) {
+        return shardOf(relativePath, shards);
+    }
+
+    /**
+     * Claims up to max shards that are neither done nor held by a live process. Each process starts looking at a
+     * different shard, so processes starting together rarely race for the same lease file.
+     */
+    public List<Integer> claim(int max) throws IOException {
+        List<Integer> claimed = new ArrayList<>();
+        int first = Math.floorMod(owner.hashCode(), shards);
+        for (int i = 0; i < shards && claimed.size() < max; i++) {
+            int shard = (first + i) % shards;
+            if (!renewedAt.containsKey(shard) && !Files.exists(donePath(shard)) && tryClaim(shard)) {
+                claimed.add(shard);
+            }
+        }
+        return claimed;
+    }
+
+    private boolean tryClaim(int shard) throws IOException {
+        Path lease = leasePath(shard);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                Files.write(lease, owner.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                renewedAt.put(shard, System.currentTimeMillis());
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                if (!takeOverIfStale(shard, lease)) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves a stale lease out of the way; of several processes trying at once only one rename succeeds. The staleness
+     * check and the rename are two steps, so a faster process may have replaced the stale lease with its own in
+     * between: the renamed file is compared with the owner and heartbeat that were checked, and put back if it differs.
+     */
+    private boolean takeOverIfStale(int shard, Path lease) throws IOException {
+        FileTime heartbeat;
+        String previous;
+        try {
+            heartbeat = Files.getLastModifiedTime(lease);
+            previous = new String(Files.readAllBytes(lease), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return true; // released meanwhile, try to create it again
+        }
+        if (System.currentTimeMillis() - heartbeat.toMillis() < leaseMillis) {
+            return false;
+        }
+        Path tombstone = dir.resolve(lease.getFileName() + ".stale-" + owner);
+        try {
+            Files.move(lease, tombstone, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false; // another process took it over first
+        } catch (AtomicMoveNotSupportedException e) {
+            throw new IOException("lease directory " + dir + " does not support atomic renames", e);
+        }
+        if (!heartbeat.equals(Files.getLastModifiedTime(tombstone))
+                || !previous.equals(new String(Files.readAllBytes(tombstone), StandardCharsets.UTF_8))) {
+            restore(tombstone, lease);
+            return false;
+        }
+        Files.delete(tombstone);
+        System.out.println("Taking over shard " + shard + " from " + previous + ", silent for "
+                + (System.currentTimeMillis() - heartbeat.toMillis()) / 1000 + " s");
+        return true;
+    }
+
+    // Puts back a live lease renamed by mistake; a link fails rather than replace a lease created in the meantime
+    private void restore(Path tombstone, Path lease) throws IOException {
+        try {
+            Files.createLink(lease, tombstone);
+        } catch (FileAlreadyExistsException e) {
+            // its owner will find the lease is no longer its own at the next heartbeat
+        } finally {
+            Files.delete(tombstone);
+        }
+    }
+
+    /**
+     * Whether this process may still work on the shard. False once the lease was lost, and also when the heartbeat
+     * has fallen behind (e.g. after a long pause), so a paused process cannot upload into a shard taken over meanwhile.
+     */
+    public boolean owns(int shard) {
+        Long renewed = renewedAt.get(shard);
+        return renewed != null && System.currentTimeMillis() - renewed < leaseMillis;
+    }
+
+    // Marks the shards finished for this pass and gives up their leases
+    public void complete(Collection<Integer> finished) throws IOException {
+        for (int shard : finished) {
+            if (renewedAt.remove(shard) != null) {
+                Files.write(donePath(shard), owner.getBytes(StandardCharsets.UTF_8));
+                release(shard);
+            }
+        }
+    }
+
+    public boolean allDone() {
+        for (int shard = 0; shard < shards; shard++) {
+            if (!Files.exists(donePath(shard))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // How long to wait before looking for stale leases again
+    public long pollMillis() {
+        return leaseMillis / 2;
+    }
+
+    private void renew() {
+        for (int shard : renewedAt.keySet()) {
+            Path lease = leasePath(shard);
+            try {
+                // a process that renamed the lease while taking over puts it back right away, so look twice
+                if (!touch(lease) && !(pause() && touch(lease))) {
+                    renewedAt.remove(shard);
+                    System.err.println("Lost the lease on shard " + shard + ", leaving it to its new owner");
+                    continue;
+                }
+                renewedAt.put(shard, System.currentTimeMillis());
+            } catch (IOException e) {
+                // keep the old timestamp: if this goes on for leaseMillis, owns() turns false by itself
+                System.err.println("Could not renew the lease on shard " + shard + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Updates the heartbeat of a lease that is still this process's; false when it is gone or someone else's
+    private boolean touch(Path lease) throws IOException {
+        try {
+            if (!owner.equals(new String(Files.readAllBytes(lease), StandardCharsets.UTF_8))) {
+                return false;
+            }
+            Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static boolean pause() {
+        try {
+            Thread.sleep(100);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // Stops the heartbeat and frees unfinished shards for other processes right away
+    @Override
+    public void close() throws IOException {
+        heartbeat.shutdownNow();
+        for (int shard : renewedAt.keySet()) {
+            renewedAt.remove(shard);
+            release(shard);
+        }
+    }
+
+    // Deletes the lease file unless another process has taken it over meanwhile
+    private void release(int shard) throws IOException {
+        Path lease = leasePath(shard);
+        try {
+            if (owner.equals(new String(Files.readAllBytes(lease), StandardCharsets.UTF_8))) {
+                Files.delete(lease);
+            }
+        } catch (NoSuchFileException e) {
+            // already gone
+        }
+    }
+
+    private Path leasePath(int shard) {
+        return dir.resolve(String.format("shard-%04d.lease", shard));
+    }
+
+    private Path donePath(int shard) {
+        return dir.resolve(String.format("shard-%04d.done", shard));
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+}
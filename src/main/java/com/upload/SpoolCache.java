@@ -0,0 +1,215 @@
+package com.upload;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Downloaded artifacts whose upload failed, kept on disk so the upload can be retried later in the run, or on the
+ * next one, without fetching the file from Nexus 2 again. Uploaded files are deleted rather than cached, so the space
+ * goes to the retries. Files are named after a UUID of their relative path and the SHA-1 of their content; the least
+ * recently used are deleted once the directory holds more than maxBytes.
+ *
+ * The index (spool.index: "relativePath TAB sha1 TAB size" lines, least recently used first) is written by save().
+ * Files it does not list, e.g. downloads interrupted by a crash, are deleted when the cache is opened; anything in
+ * the directory that the cache did not name itself is left alone.
+ */
+public class SpoolCache {
+
+    private static final String INDEX = "spool.index";
+    private static final Pattern CACHED_FILE = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}-[0-9a-f]{40}");
+
+    private final Path dir;
+    private final long maxBytes;
+
+    // relative path -> cached file, in access order; guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final LongAdder hits = new LongAdder();
+
+    private record Entry(Path file, long size, String sha1) {
+    }
+
+    private SpoolCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static SpoolCache open(Path dir, long maxBytes) throws IOException {
+        SpoolCache cache = new SpoolCache(Files.createDirectories(dir), maxBytes);
+        Path index = dir.resolve(INDEX);
+        if (Files.exists(index)) {
+            try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (fields.length != 3) {
+                        continue;
+                    }
+                    Path file = dir.resolve(fileName(fields[0], fields[1]));
+                    long size = Long.parseLong(fields[2]);
+                    if (Files.exists(file) && Files.size(file) == size) {
+                        cache.entries.put(fields[0], new Entry(file, size, fields[1]));
+                        cache.totalBytes += size;
+                    }
+                }
+            }
+        }
+        Set<Path> listed = new HashSet<>();
+        cache.entries.values().forEach(entry -> listed.add(entry.file()));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (!listed.contains(file) && isOwnFile(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        cache.evict();
+        System.out.println("Spool cache " + dir + " holds " + cache.entries.size() + " files, " + cache.totalBytes / (1024 * 1024)
+                + " MiB waiting for a retry");
+        return cache;
+    }
+
+    // A temp file in the cache directory, so put() is a rename rather than a copy
+    public Path newFile(String relativePath) throws IOException {
+        return Files.createTempFile(dir, "nexus2-", "-" + Paths.get(relativePath).getFileName());
+    }
+
+    /**
+     * Hands the cached file of a path over to the caller, who gives it back with put() if the upload fails again.
+     * Null when nothing is cached, or the cached content's SHA-1 differs from expectedSha1 (when that is known).
+     */
+    public synchronized Path take(String relativePath, String expectedSha1) throws IOException {
+        Entry entry = entries.remove(relativePath);
+        if (entry == null) {
+            return null;
+        }
+        totalBytes -= entry.size();
+        if (expectedSha1 != null && !expectedSha1.equals(entry.sha1())) {
+            System.out.println("Spool cache has an outdated copy of " + relativePath + ", downloading it again");
+            Files.deleteIfExists(entry.file());
+            return null;
+        }
+        hits.increment();
+        return entry.file();
+    }
+
+    // Drops the cached file of a path that no longer needs uploading
+    public void discard(String relativePath) {
+        Path file;
+        synchronized (this) {
+            Entry entry = entries.remove(relativePath);
+            if (entry == null) {
+                return;
+            }
+            totalBytes -= entry.size();
+            file = entry.file();
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("Could not delete " + file + " from the spool cache: " + e.getMessage());
+        }
+    }
+
+    // Takes over the file of a failed upload, evicting the least recently used files if the cache grows past maxBytes.
+    // Only these files are hashed, for the name and for take()'s check
+    public void put(String relativePath, Path file) throws IOException {
+        long size = Files.size(file);
+        if (size > maxBytes) {
+            Files.delete(file);
+            return;
+        }
+        String sha1 = sha1(file);
+        Path target = dir.resolve(fileName(relativePath, sha1));
+        Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        synchronized (this) {
+            Entry previous = entries.put(relativePath, new Entry(target, size, sha1));
+            if (previous != null) {
+                totalBytes -= previous.size();
+                if (!previous.file().equals(target)) {
+                    Files.deleteIfExists(previous.file());
+                }
+            }
+            totalBytes += size;
+            evict();
+        }
+    }
+
+    // Paths whose last upload failed, least recently used first
+    public synchronized List<String> pending() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public synchronized long bytes() {
+        return totalBytes;
+    }
+
+    // Written to a temp file first, like the crawl snapshot
+    public synchronized void save() throws IOException {
+        Path temp = Files.createTempFile(dir, "index-", ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> cached : entries.entrySet()) {
+                Entry entry = cached.getValue();
+                writer.write(cached.getKey() + "\t" + entry.sha1() + "\t" + entry.size());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, dir.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private synchronized void evict() throws IOException {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.size();
+            try {
+                Files.delete(entry.file());
+            } catch (NoSuchFileException e) {
+                // deleted by hand meanwhile
+            }
+        }
+    }
+
+    // Only files named the way this class names them are ever deleted, whatever else the directory holds
+    private static boolean isOwnFile(Path file) {
+        String name = file.getFileName().toString();
+        boolean temp = name.startsWith("nexus2-") || name.startsWith("index-") && name.endsWith(".tmp");
+        return (temp || CACHED_FILE.matcher(name).matches()) && Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    private static String fileName(String relativePath, String sha1) {
+        return UUID.nameUUIDFromBytes(relativePath.getBytes(StandardCharsets.UTF_8)) + "-" + sha1;
+    }
+
+    private static String sha1(Path file) throws IOException {
+        try (ChecksumInputStream checked = new ChecksumInputStream(Files.newInputStream(file), false)) {
+            checked.transferTo(OutputStream.nullOutputStream());
+            return checked.sha1Hex();
+        }
+    }
+}
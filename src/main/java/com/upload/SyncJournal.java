@@ -0,0 +1,172 @@
+package com.upload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only record of what happened to every relative path, so a restarted run can skip finished work
+ * without touching the network.
+ *
+ * File layout: the 4 byte magic "N2J1", then one record per outcome:
+ *   int length, byte outcome, UTF path, long size, UTF checksum, long timestamp
+ * A record cut short by a crash is dropped (and truncated away) when the journal is opened again.
+ */
+public class SyncJournal implements AutoCloseable {
+
+    public enum Outcome {
+        UPLOADED, SKIPPED, FAILED;
+
+        boolean isDone() {
+            return this != FAILED;
+        }
+    }
+
+    private static final byte[] MAGIC = {'N', '2', 'J', '1'};
+
+    // outcome byte, two writeUTF strings of at most 65535 bytes each, size and timestamp
+    private static final int MAX_RECORD = 1 + 2 * (2 + 65535) + 8 + 8;
+
+    private final Path file;
+    private final Map<String, Outcome> outcomes = new HashMap<>(); // latest outcome per path
+    private DataOutputStream out;
+
+    private SyncJournal(Path file) {
+        this.file = file;
+    }
+
+    public static SyncJournal open(Path file) throws IOException {
+        SyncJournal journal = new SyncJournal(file);
+        long validLength = journal.load();
+        if (validLength < Files.size(file)) {
+            System.out.println("Dropping incomplete journal record at offset " + validLength);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        journal.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), true), 64 * 1024));
+        return journal;
+    }
+
+    // Reads every complete record, returns the offset just past the last one
+    private long load() throws IOException {
+        if (!Files.exists(file) || Files.size(file) < MAGIC.length) {
+            if (Files.exists(file) && Files.size(file) > 0) {
+                System.out.println("Dropping incomplete journal header of " + file);
+            }
+            Files.write(file, MAGIC);
+            return MAGIC.length;
+        }
+
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 20))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(file + " is not a sync journal");
+            }
+            offset = MAGIC.length;
+
+            byte[] record = new byte[256];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                    if (length < 0 || length > MAX_RECORD) {
+                        break; // a corrupt length is treated like a torn tail: everything from here is dropped
+                    }
+                    if (length > record.length) {
+                        record = new byte[length];
+                    }
+                    in.readFully(record, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record, 0, length));
+                try {
+                    int ordinal = fields.readByte();
+                    if (ordinal < 0 || ordinal >= Outcome.values().length) {
+                        break;
+                    }
+                    outcomes.put(fields.readUTF(), Outcome.values()[ordinal]);
+                } catch (IOException e) {
+                    break; // fields do not fit the length, same as above
+                }
+                offset += 4 + length;
+            }
+        }
+        System.out.println("Loaded " + outcomes.size() + " journaled paths from " + file);
+        return offset;
+    }
+
+    public synchronized boolean isDone(String relativePath) {
+        Outcome outcome = outcomes.get(relativePath);
+        return outcome != null && outcome.isDone();
+    }
+
+    public synchronized Outcome outcome(String relativePath) {
+        return outcomes.get(relativePath);
+    }
+
+    // size is -1 and checksum null when they are not known
+    public synchronized void record(String relativePath, Outcome outcome, long size, String checksum) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 + relativePath.length());
+            DataOutputStream fields = new DataOutputStream(buffer);
+            fields.writeByte(outcome.ordinal());
+            fields.writeUTF(relativePath);
+            fields.writeLong(size);
+            fields.writeUTF(checksum == null ? "" : checksum);
+            fields.writeLong(System.currentTimeMillis());
+
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+            out.flush();
+            outcomes.put(relativePath, outcome);
+        } catch (IOException e) {
+            // losing a journal entry only costs a re-check on the next run
+            System.err.println("Failed to journal " + relativePath + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    // Dump a journal in readable form: outcome, size, checksum, timestamp, path
+    public static void main(String[] args) throws IOException {
+        try (InputStream raw = Files.newInputStream(Path.of(args[0]));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(raw))) {
+            in.readFully(new byte[MAGIC.length]);
+            while (true) {
+                try {
+                    in.readInt();
+                    Outcome outcome = Outcome.values()[in.readByte()];
+                    String path = in.readUTF();
+                    long size = in.readLong();
+                    String checksum = in.readUTF();
+                    long timestamp = in.readLong();
+                    System.out.println(outcome + "\t" + size + "\t" + checksum + "\t" + Instant.ofEpochMilli(timestamp) + "\t" + path);
+                } catch (EOFException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
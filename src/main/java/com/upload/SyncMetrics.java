@@ -0,0 +1,319 @@
+package com.upload;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Run-wide counters and per-stage latency histograms. Everything is a LongAdder, so the worker threads that
+ * update them never contend on one cache line. Readable live over JMX (com.upload:type=SyncMetrics) and
+ * written periodically as a JSON snapshot, so a multi-day migration can be watched while it runs.
+ */
+public class SyncMetrics implements SyncMetricsMXBean {
+
+    private static final SyncMetrics SHARED = new SyncMetrics();
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    final LongAdder skips = new LongAdder();
+    final LongAdder successfulUploads = new LongAdder();
+    final LongAdder caseCollisions = new LongAdder();
+    final LongAdder failedUploads = new LongAdder();
+    final LongAdder checksumMismatches = new LongAdder();
+    final LongAdder bytesDownloaded = new LongAdder();
+    final LongAdder bytesUploaded = new LongAdder();
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    // what the previous snapshot saw, for the "current" rates
+    private long lastSnapshotNanos = startNanos;
+    private long lastBytesDownloaded;
+    private long lastBytesUploaded;
+
+    public static SyncMetrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Latency histogram and counters of one step (crawl, check, download, upload).
+     * Bucket i counts calls that took [2^i, 2^(i+1)) microseconds, which is plenty for picking out a bottleneck.
+     */
+    static class Stage {
+        private static final int BUCKETS = 40;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder blockedNanos = new LongAdder(); // waiting for room in the next stage's queue, not in totalNanos
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private volatile IntSupplier queueDepth = () -> 0;
+
+        Stage() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        long begin() {
+            inFlight.increment();
+            return System.nanoTime();
+        }
+
+        void end(long start, boolean success) {
+            end(start, success, 0);
+        }
+
+        // blocked is the part of the call spent handing work downstream; it is reported apart from the stage's own time
+        void end(long start, boolean success, long blocked) {
+            long nanos = System.nanoTime() - start - blocked;
+            blockedNanos.add(blocked);
+            inFlight.decrement();
+            (success ? completed : failed).increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            long micros = Math.max(1, nanos / 1000);
+            buckets[Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros))].increment();
+        }
+
+        void setQueueDepth(IntSupplier queueDepth) {
+            this.queueDepth = queueDepth;
+        }
+
+        double meanMillis() {
+            long calls = completed.sum() + failed.sum();
+            return calls == 0 ? 0 : totalNanos.sum() / calls / 1_000_000.0;
+        }
+
+        double meanBlockedMillis() {
+            long calls = completed.sum() + failed.sum();
+            return calls == 0 ? 0 : blockedNanos.sum() / calls / 1_000_000.0;
+        }
+
+        // Upper bound of the bucket holding the q-th quantile
+        double percentileMillis(double q) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(q * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min((2L << i) * 1000, maxNanos.get()) / 1_000_000.0;
+                }
+            }
+            return maxNanos.get() / 1_000_000.0;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("completed", completed.sum());
+            map.put("failed", failed.sum());
+            map.put("inFlight", inFlight.sum());
+            map.put("queueDepth", queueDepth.getAsInt());
+            map.put("meanMillis", meanMillis());
+            map.put("p50Millis", percentileMillis(0.50));
+            map.put("p90Millis", percentileMillis(0.90));
+            map.put("p99Millis", percentileMillis(0.99));
+            map.put("maxMillis", maxNanos.get() / 1_000_000.0);
+            map.put("meanBlockedMillis", meanBlockedMillis());
+            return map;
+        }
+    }
+
+    Stage stage(String name) {
+        return stages.computeIfAbsent(name, n -> new Stage());
+    }
+
+    // Any other live number worth watching, e.g. the adaptive limit
+    void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("com.upload:type=SyncMetrics"));
+        } catch (JMException e) {
+            System.err.println("Could not register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    // Writes a snapshot to the file (when given) and a progress line to stdout every interval, until the JVM exits
+    void startReporting(Path snapshotFile, long intervalSeconds) {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sync-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            Map<String, Object> snapshot = snapshot();
+            System.out.println("Progress: " + summaryLine(snapshot));
+            if (snapshotFile != null) {
+                writeSnapshot(snapshotFile, snapshot);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // Replaces the file in one move, so a reader never sees half a snapshot
+    void writeSnapshot(Path file, Map<String, Object> snapshot) {
+        try {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            MAPPER.writeValue(temp.toFile(), snapshot);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    synchronized Map<String, Object> snapshot() {
+        long now = System.nanoTime();
+        double sinceLast = Math.max(1, now - lastSnapshotNanos) / 1e9;
+        long downloaded = bytesDownloaded.sum();
+        long uploaded = bytesUploaded.sum();
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("timestamp", Instant.now().toString());
+        map.put("uptimeSeconds", (now - startNanos) / 1_000_000_000L);
+        map.put("skips", skips.sum());
+        map.put("successfulUploads", successfulUploads.sum());
+        map.put("caseCollisions", caseCollisions.sum());
+        map.put("failedUploads", failedUploads.sum());
+        map.put("checksumMismatches", checksumMismatches.sum());
+        map.put("bytesDownloaded", downloaded);
+        map.put("bytesUploaded", uploaded);
+        map.put("downloadBytesPerSecond", (long) ((downloaded - lastBytesDownloaded) / sinceLast));
+        map.put("uploadBytesPerSecond", (long) ((uploaded - lastBytesUploaded) / sinceLast));
+        map.put("averageUploadBytesPerSecond", getUploadBytesPerSecond());
+        Map<String, Object> stageMaps = new LinkedHashMap<>();
+        stages.forEach((name, stage) -> stageMaps.put(name, stage.toMap()));
+        map.put("stages", stageMaps);
+        Map<String, Object> gaugeValues = new LinkedHashMap<>();
+        gauges.forEach((name, value) -> gaugeValues.put(name, value.getAsLong()));
+        map.put("gauges", gaugeValues);
+
+        lastSnapshotNanos = now;
+        lastBytesDownloaded = downloaded;
+        lastBytesUploaded = uploaded;
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String summaryLine(Map<String, Object> snapshot) {
+        StringBuilder line = new StringBuilder()
+                .append(snapshot.get("successfulUploads")).append(" uploaded, ")
+                .append(snapshot.get("skips")).append(" skipped, ")
+                .append(snapshot.get("failedUploads")).append(" failed, ")
+                .append((Long) snapshot.get("uploadBytesPerSecond") / 1024).append(" KiB/s up");
+        ((Map<String, Map<String, Object>>) snapshot.get("stages")).forEach((name, stage) -> line
+                .append(" | ").append(name)
+                .append(" q=").append(stage.get("queueDepth"))
+                .append(" busy=").append(stage.get("inFlight"))
+                .append(" p90=").append(stage.get("p90Millis")).append("ms"));
+        return line.toString();
+    }
+
+    // Printed at the end of a run
+    void printStageSummary() {
+        stages.forEach((name, stage) -> System.out.println("Stage " + name + ":  " + stage.toMap()));
+        System.out.println("Bytes downloaded:  " + bytesDownloaded.sum() + ", uploaded:  " + bytesUploaded.sum()
+                + " (" + getUploadBytesPerSecond() / 1024 + " KiB/s average)");
+    }
+
+    // JMX attributes
+
+    @Override
+    public long getSkips() {
+        return skips.sum();
+    }
+
+    @Override
+    public long getSuccessfulUploads() {
+        return successfulUploads.sum();
+    }
+
+    @Override
+    public long getCaseCollisions() {
+        return caseCollisions.sum();
+    }
+
+    @Override
+    public long getFailedUploads() {
+        return failedUploads.sum();
+    }
+
+    @Override
+    public long getChecksumMismatches() {
+        return checksumMismatches.sum();
+    }
+
+    @Override
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    @Override
+    public long getBytesUploaded() {
+        return bytesUploaded.sum();
+    }
+
+    @Override
+    public long getUploadBytesPerSecond() {
+        double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+        return (long) (bytesUploaded.sum() / seconds);
+    }
+
+    @Override
+    public Map<String, Long> getQueueDepths() {
+        Map<String, Long> depths = new LinkedHashMap<>();
+        stages.forEach((name, stage) -> depths.put(name, (long) stage.queueDepth.getAsInt()));
+        return depths;
+    }
+
+    @Override
+    public Map<String, Long> getInFlight() {
+        Map<String, Long> inFlight = new LinkedHashMap<>();
+        stages.forEach((name, stage) -> inFlight.put(name, stage.inFlight.sum()));
+        return inFlight;
+    }
+
+    @Override
+    public Map<String, Double> getP90Millis() {
+        Map<String, Double> p90 = new LinkedHashMap<>();
+        stages.forEach((name, stage) -> p90.put(name, stage.percentileMillis(0.90)));
+        return p90;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        gauges.forEach((name, value) -> values.put(name, value.getAsLong()));
+        return values;
+    }
+}
@@ -0,0 +1,33 @@
+package com.upload;
+
+import java.util.Map;
+
+/**
+ * What SyncMetrics shows over JMX (jconsole, VisualVM, ...). Map attributes are keyed by stage or gauge name.
+ */
+public interface SyncMetricsMXBean {
+
+    long getSkips();
+
+    long getSuccessfulUploads();
+
+    long getCaseCollisions();
+
+    long getFailedUploads();
+
+    long getChecksumMismatches();
+
+    long getBytesDownloaded();
+
+    long getBytesUploaded();
+
+    long getUploadBytesPerSecond();
+
+    Map<String, Long> getQueueDepths();
+
+    Map<String, Long> getInFlight();
+
+    Map<String, Double> getP90Millis();
+
+    Map<String, Long> getGauges();
+}
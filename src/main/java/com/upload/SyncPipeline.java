@@ -0,0 +1,225 @@
+package com.upload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Streams crawled paths through check -> download -> upload stages instead of materializing the whole repository first.
+ * Every stage has its own worker count and a bounded queue, so transfers start as soon as the first directory is listed.
+ *
+ * Download and upload are split into two lanes by the size the Nexus 2 listing reports. Small files go to a lane with
+ * most of the workers, where latency is what counts. Files of LARGE_FILE_BYTES and up go to a few workers of their own,
+ * largest first, so a multi-GB archive neither waits behind thousands of poms nor blocks them.
+ */
+class SyncPipeline {
+
+    private static final int CHECK_QUEUE_CAPACITY = 1000;
+    private static final long GAV_QUIET_MILLIS = Long.getLong("sync.maven.groupQuietMillis", 2000);
+    private static final int GAV_MAX_ASSETS = Integer.getInteger("sync.maven.groupMaxAssets", 32);
+    private static final int GAV_MAX_OPEN_FILES = Integer.getInteger("sync.maven.groupMaxOpenFiles", 1024);
+
+    // -Dsync.lane.largeMB=0 puts every file in one lane, as before
+    private static final long LARGE_FILE_BYTES = Long.getLong("sync.lane.largeMB", 64) << 20;
+    private static final String LARGE_LANE_THREADS = System.getProperty("sync.lane.large.threads");
+    private static final boolean LARGEST_FIRST = Boolean.parseBoolean(System.getProperty("sync.lane.largestFirst", "true"));
+    private static final int LARGE_QUEUE_CAPACITY = 256; // only paths wait here, and a deeper queue sorts better
+
+    private final Nexus2To3Sync sync;
+    private final boolean passThrough;
+    private final PipelineStage<CrawledFile> checkStage;
+    private final PipelineStage<CrawledFile> downloadStage;
+    private final PipelineStage<List<DownloadedFile>> uploadStage;
+    private final PipelineStage<CrawledFile> largeDownloadStage; // null with a single lane
+    private final PipelineStage<List<DownloadedFile>> largeUploadStage;
+    private final GavBatcher<DownloadedFile> gavBatcher; // null unless Maven files are grouped per GAV
+    private final PipelineStage<String> retryStage; // null without a spool cache
+
+    // size is what the listing showed, -1 when unknown
+    private record CrawledFile(String relativePath, long size) {
+    }
+
+    private record DownloadedFile(Path file, String relativePath, long size) {
+    }
+
+    // In pass-through mode the download workers stream each artifact straight into Nexus 3 and the upload stage stays idle.
+    // With groupByGav downloaded Maven files wait for the rest of their groupId/artifactId/version and go up as one component.
+    SyncPipeline(Nexus2To3Sync sync, int checkThreads, int downloadThreads, int uploadThreads, boolean passThrough, boolean groupByGav) {
+        this.sync = sync;
+        this.passThrough = passThrough;
+        this.checkStage = new PipelineStage<>("check", checkThreads, CHECK_QUEUE_CAPACITY, this::check);
+        this.retryStage = sync.hasSpoolCache() ? new PipelineStage<>("retry", uploadThreads, uploadThreads, sync::retryFromSpool) : null;
+        if (LARGE_FILE_BYTES > 0) {
+            // the large lane's workers are carved out of the stage's, so total concurrency stays what was configured
+            int largeDownloads = largeLaneThreads(downloadThreads);
+            int largeUploads = largeLaneThreads(uploadThreads);
+            Comparator<CrawledFile> downloadOrder = LARGEST_FIRST ? Comparator.comparingLong(CrawledFile::size).reversed() : null;
+            Comparator<List<DownloadedFile>> uploadOrder = LARGEST_FIRST ? Comparator.comparingLong(SyncPipeline::totalSize).reversed() : null;
+            this.largeDownloadStage = new PipelineStage<>("download-large", largeDownloads, LARGE_QUEUE_CAPACITY, downloadOrder, this::download);
+            this.largeUploadStage = new PipelineStage<>("upload-large", largeUploads, largeUploads, uploadOrder, this::upload);
+            downloadThreads = Math.max(1, downloadThreads - largeDownloads);
+            uploadThreads = Math.max(1, uploadThreads - largeUploads);
+        } else {
+            this.largeDownloadStage = null;
+            this.largeUploadStage = null;
+        }
+        this.downloadStage = new PipelineStage<>("download", downloadThreads, downloadThreads * 2, this::download);
+        // keep the upload queue short: every entry is a temp file on disk
+        this.uploadStage = new PipelineStage<>("upload", uploadThreads, uploadThreads, this::upload);
+        this.gavBatcher = groupByGav && !passThrough
+                ? new GavBatcher<>(DownloadedFile::relativePath, this::submitUpload, GAV_QUIET_MILLIS, GAV_MAX_ASSETS, GAV_MAX_OPEN_FILES)
+                : null;
+    }
+
+    // -Dsync.lane.large.threads, or a quarter of the stage's workers
+    private static int largeLaneThreads(int stageThreads) {
+        return LARGE_LANE_THREADS != null ? Integer.parseInt(LARGE_LANE_THREADS) : Math.max(1, stageThreads / 4);
+    }
+
+    void run() throws IOException, InterruptedException {
+        uploadStage.start();
+        downloadStage.start();
+        if (largeDownloadStage != null) {
+            largeUploadStage.start();
+            largeDownloadStage.start();
+        }
+        if (retryStage != null) {
+            retryStage.start();
+        }
+        checkStage.start();
+        try {
+            MigrationPlan plan = sync.plan();
+            if (plan != null) {
+                // the plan is the outcome of the check already, so its paths go straight to the downloads
+                for (MigrationPlan.Entry entry : plan.entries()) {
+                    if (sync.acceptPlanned(entry)) {
+                        submitDownload(new CrawledFile(entry.relativePath(), entry.size()));
+                    }
+                }
+                return;
+            }
+            sync.crawlNexus2(file -> {
+                String relativePath = sync.toRelativePath(file.url());
+                if (relativePath == null) {
+                    return;
+                }
+                sync.offer(relativePath);
+                if (!sync.skipIfJournaled(relativePath) && !sync.skipCaseCollision(relativePath)) {
+                    checkStage.submit(new CrawledFile(relativePath, file.size()));
+                }
+            });
+        } finally {
+            checkStage.finish();
+            downloadStage.finish();
+            if (largeDownloadStage != null) {
+                largeDownloadStage.finish();
+            }
+            if (gavBatcher != null) {
+                gavBatcher.close();
+            }
+            uploadStage.finish();
+            if (largeUploadStage != null) {
+                largeUploadStage.finish();
+            }
+            if (retryStage != null) {
+                // every upload has been tried once, so whatever failed (in this run or an earlier one) is spooled now
+                try {
+                    for (String relativePath : sync.spooledRetries()) {
+                        retryStage.submit(relativePath);
+                    }
+                } finally {
+                    retryStage.finish();
+                }
+            }
+        }
+    }
+
+    private boolean isLarge(long size) {
+        return largeDownloadStage != null && size >= LARGE_FILE_BYTES;
+    }
+
+    // Whether a file of this size goes to the large lane; the only sizes sharded mode keeps between claim rounds
+    static boolean isLargeFile(long size) {
+        return LARGE_FILE_BYTES > 0 && size >= LARGE_FILE_BYTES;
+    }
+
+    private static long totalSize(List<DownloadedFile> batch) {
+        long total = 0;
+        for (DownloadedFile downloaded : batch) {
+            total += Math.max(0, downloaded.size());
+        }
+        return total;
+    }
+
+    private void submitDownload(CrawledFile crawled) throws InterruptedException {
+        (isLarge(crawled.size()) ? largeDownloadStage : downloadStage).submit(crawled);
+    }
+
+    private void submitUpload(List<DownloadedFile> batch) throws InterruptedException {
+        (isLarge(totalSize(batch)) ? largeUploadStage : uploadStage).submit(batch);
+    }
+
+    private void check(CrawledFile crawled) throws InterruptedException {
+        String relativePath = crawled.relativePath();
+        if (sync.leaseLost(relativePath)) {
+            return;
+        }
+        System.out.println("Checking: " + relativePath);
+        try {
+            if (sync.isUpToDateInNexus3(relativePath)) {
+                System.out.println("Exists in Nexus 3, skipping " + relativePath);
+                sync.recordSkip(relativePath);
+            } else {
+                System.out.println("Missing in Nexus 3, syncing " + relativePath);
+                submitDownload(crawled);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to check " + relativePath + ": " + e.getMessage());
+            sync.recordFailure(relativePath);
+        }
+    }
+
+    private void download(CrawledFile crawled) throws InterruptedException {
+        String relativePath = crawled.relativePath();
+        try {
+            if (passThrough) {
+                sync.transferToNexus3(relativePath);
+                return;
+            }
+            Path file = sync.downloadFromNexus2(relativePath);
+            DownloadedFile downloaded = new DownloadedFile(file, relativePath, Files.size(file));
+            if (gavBatcher != null) {
+                gavBatcher.add(downloaded);
+            } else {
+                submitUpload(List.of(downloaded));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to download " + relativePath + ": " + e.getMessage());
+            sync.recordFailure(relativePath);
+        }
+    }
+
+    private void upload(List<DownloadedFile> batch) throws IOException {
+        try {
+            if (batch.size() == 1) {
+                DownloadedFile downloaded = batch.get(0);
+                sync.uploadToNexus3(downloaded.file(), downloaded.relativePath());
+            } else {
+                List<Path> files = new ArrayList<>();
+                List<String> relativePaths = new ArrayList<>();
+                for (DownloadedFile downloaded : batch) {
+                    files.add(downloaded.file());
+                    relativePaths.add(downloaded.relativePath());
+                }
+                sync.uploadComponentToNexus3(files, relativePaths);
+            }
+        } finally {
+            for (DownloadedFile downloaded : batch) {
+                sync.releaseDownload(downloaded.file(), downloaded.relativePath());
+            }
+        }
+    }
+}
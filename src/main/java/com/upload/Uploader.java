@@ -1,7 +1,22 @@
 package com.upload;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 public interface Uploader {
     boolean upload(Path file, String relativePath);
+
+    // Upload content of a known length straight from a stream; implementations that cannot stream spool to a temp file
+    default boolean upload(InputStream content, long length, String relativePath) throws IOException {
+        Path spooled = Files.createTempFile("nexus2-", "-" + Path.of(relativePath).getFileName());
+        try {
+            Files.copy(content, spooled, StandardCopyOption.REPLACE_EXISTING);
+            return upload(spooled, relativePath);
+        } finally {
+            Files.delete(spooled);
+        }
+    }
 }